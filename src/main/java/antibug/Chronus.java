@@ -11,12 +11,16 @@ package antibug;
 
 import static java.util.concurrent.TimeUnit.*;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -30,23 +34,57 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import antibug.profiler.Histogram;
+
 public class Chronus implements ScheduledExecutorService {
 
     /** The flag for task manager. */
     private transient volatile AtomicBoolean awaiting = new AtomicBoolean();
 
-    /** The non-executed tasks. */
-    private volatile CopyOnWriteArraySet remaining = new CopyOnWriteArraySet();
+    /** The tracking state updater of task. */
+    private static final AtomicIntegerFieldUpdater<Task> TRACKING = AtomicIntegerFieldUpdater.newUpdater(Task.class, "tracking");
+
+    /** The number of non-executed tasks. */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /** The non-executed tasks, it is used only for diagnostics. */
+    private final Set<Task> remaining = ConcurrentHashMap.newKeySet();
+
+    /** The threads waiting for all tasks. */
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue();
+
+    /** The time to spin before the deadline of real time wait in nanoseconds. */
+    private volatile long spinThreshold = MICROSECONDS.toNanos(200);
+
+    /** The overshoot of real time wait in nanoseconds. */
+    private final Histogram overshoot = new Histogram();
+
+    /** The time from submission to start of the immediate task in nanoseconds. */
+    private final Histogram queueDelay = new Histogram();
+
+    /** The time from intended fire time to start of the scheduled task in nanoseconds. */
+    private final Histogram lateness = new Histogram();
+
+    /** The execution time of task in nanoseconds. */
+    private final Histogram runTime = new Histogram();
+
+    /** The time limit to wait all tasks in nanoseconds. */
+    private volatile long awaitLimit = MILLISECONDS.toNanos(3000);
 
     /** The lazy service initializer. */
     private final Supplier<ScheduledExecutorService> builder;
 
-    /** The service holder. */
-    private final AtomicReference<ScheduledExecutorService> holder = new AtomicReference();
+    /** The lazy initialized service. */
+    private volatile ScheduledExecutorService service;
+
+    /** The virtual clock or null for real time. */
+    private final VirtualScheduler clock;
 
     /**
      * By {@link Executors#newCachedThreadPool()}.
@@ -61,7 +99,66 @@ public class Chronus implements ScheduledExecutorService {
      * @param builder Your {@link ExecutorService}.
      */
     public Chronus(Supplier<ScheduledExecutorService> builder) {
+        this(builder, null);
+    }
+
+    /**
+     * @param builder
+     * @param clock
+     */
+    private Chronus(Supplier<ScheduledExecutorService> builder, VirtualScheduler clock) {
         this.builder = Objects.requireNonNull(builder);
+        this.clock = clock;
+    }
+
+    /**
+     * Create {@link Chronus} on the virtual clock. No task is executed and no time passes until
+     * the clock is advanced by {@link #advance(long, TimeUnit)}, {@link #elapse(int, TimeUnit)},
+     * {@link #await(long, TimeUnit)} or {@link #await()}. Then all tasks due up to the new instant
+     * are executed in the timestamp order on the advancing thread, so the test of timeout or retry
+     * policy runs deterministically without real sleeping.
+     * 
+     * @return The virtual {@link Chronus}.
+     */
+    public static Chronus virtual() {
+        VirtualScheduler clock = new VirtualScheduler();
+
+        return new Chronus(() -> clock, clock);
+    }
+
+    /**
+     * Create {@link Chronus} which executes each task on its own virtual thread (JDK 21 or later,
+     * each task runs on its own platform thread on the older JDK), so the blocking tasks never
+     * exhaust the thread pool. It can simulate thousands of concurrent blocking clients in one test.
+     * The delayed tasks wait on the single timer thread.
+     * 
+     * @return The thread-per-task {@link Chronus}.
+     */
+    public static Chronus threadPerTask() {
+        return new Chronus(ThreadPerTaskScheduler::new);
+    }
+
+    /**
+     * Create {@link Chronus} on the {@link TimingWheelScheduler}. Scheduling and cancellation are
+     * O(1) even if there are millions of pending tasks, the delayed task is executed on the first
+     * tick at or after its delay.
+     * 
+     * @param tick A tick duration.
+     * @param unit A time unit.
+     * @return The timing wheel {@link Chronus}.
+     */
+    public static Chronus timingWheel(long tick, TimeUnit unit) {
+        return new Chronus(() -> new TimingWheelScheduler(tick, unit));
+    }
+
+    /**
+     * Retrieve the current time of this {@link Chronus}. It is {@link System#nanoTime()} on the real
+     * clock.
+     * 
+     * @return The time in nanoseconds.
+     */
+    public long nanoTime() {
+        return clock == null ? System.nanoTime() : clock.now();
     }
 
     /**
@@ -70,7 +167,18 @@ public class Chronus implements ScheduledExecutorService {
      * @return
      */
     private ScheduledExecutorService executor() {
-        return holder.updateAndGet(e -> e != null ? e : builder.get());
+        ScheduledExecutorService executor = service;
+
+        if (executor == null) {
+            synchronized (builder) {
+                executor = service;
+
+                if (executor == null) {
+                    service = executor = Objects.requireNonNull(builder.get());
+                }
+            }
+        }
+        return executor;
     }
 
     /**
@@ -99,11 +207,36 @@ public class Chronus implements ScheduledExecutorService {
         return this;
     }
 
+    /**
+     * Config the time limit of {@link #await()}. (default is 3000ms)
+     * 
+     * @param time A time limit.
+     * @param unit A time unit.
+     * @return Chainable API.
+     */
+    public Chronus configAwaitLimit(long time, TimeUnit unit) {
+        awaitLimit = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Config the time to spin before the deadline of real time wait. (default is 200µs) The longer
+     * threshold is more accurate but burns more CPU, the zero threshold never spins.
+     * 
+     * @param time A threshold time.
+     * @param unit A time unit.
+     * @return Chainable API.
+     */
+    public Chronus configSpinThreshold(long time, TimeUnit unit) {
+        spinThreshold = unit.toNanos(Math.max(0, time));
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public final synchronized void execute(Runnable command) {
+    public final void execute(Runnable command) {
         executor().execute(new Task(command));
     }
 
@@ -227,7 +360,7 @@ public class Chronus implements ScheduledExecutorService {
             return immediately(Executors.callable(command));
         }
 
-        Task task = new Task(command);
+        Task task = new Task(command).delay(unit.toNanos(delay));
         return task.connect(executor().schedule((Callable) task, delay, unit));
     }
 
@@ -240,7 +373,7 @@ public class Chronus implements ScheduledExecutorService {
             return immediately(callable);
         }
 
-        Task task = new Task(callable);
+        Task task = new Task(callable).delay(unit.toNanos(delay));
         return task.connect(executor().schedule((Callable) task, delay, unit));
     }
 
@@ -259,15 +392,29 @@ public class Chronus implements ScheduledExecutorService {
      */
     @Override
     public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long interval, TimeUnit unit) {
-        long intervalMills = unit.toMillis(interval);
-        long[] next = {System.currentTimeMillis() + unit.toMillis(initialDelay) + intervalMills};
-        Runnable[] task = new Runnable[1];
-        task[0] = () -> {
-            next[0] = next[0] + intervalMills;
-            command.run();
-            schedule(task[0], next[0] - System.currentTimeMillis(), unit);
-        };
-        return schedule(task[0], initialDelay, unit);
+        return scheduleAtFixedRate(command, initialDelay, interval, unit, Overrun.CatchUp);
+    }
+
+    /**
+     * Submits a periodic action that becomes enabled first after the given initial delay, and
+     * subsequently with the given period. The same task is executed by the underlying
+     * {@link ScheduledExecutorService} for its whole lifetime on the deadlines in nanoseconds, so
+     * the execution doesn't drift and allocate. The returned future cancels all the subsequent
+     * executions.
+     * 
+     * @param command The task to execute.
+     * @param initialDelay The time to delay first execution.
+     * @param interval The period between successive executions.
+     * @param unit The time unit of the initialDelay and period parameters.
+     * @param overrun The policy for the execution which is late by one or more periods.
+     * @return The periodic future.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long interval, TimeUnit unit, Overrun overrun) {
+        Objects.requireNonNull(overrun);
+        long first = nanoTime() + unit.toNanos(Math.max(0, initialDelay));
+
+        Periodic task = new Periodic(command, first, unit.toNanos(interval), overrun);
+        return task.connect((Future) executor().scheduleAtFixedRate(task, initialDelay, interval, unit));
     }
 
     /**
@@ -275,12 +422,8 @@ public class Chronus implements ScheduledExecutorService {
      */
     @Override
     public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long interval, TimeUnit unit) {
-        Runnable[] task = new Runnable[1];
-        task[0] = () -> {
-            command.run();
-            schedule(task[0], interval, unit);
-        };
-        return schedule(task[0], initialDelay, unit);
+        Periodic task = new Periodic(command, 0, 0, Overrun.CatchUp);
+        return task.connect((Future) executor().scheduleWithFixedDelay(task, initialDelay, interval, unit));
     }
 
     private long marked;
@@ -290,7 +433,7 @@ public class Chronus implements ScheduledExecutorService {
      * {@link #elapse(int, TimeUnit)} or {@link #within(int, TimeUnit, Runnable)}.
      */
     public final Chronus mark() {
-        marked = System.nanoTime();
+        marked = nanoTime();
 
         return this;
     }
@@ -313,8 +456,11 @@ public class Chronus implements ScheduledExecutorService {
     public final Chronus elapse(int amount, TimeUnit unit) {
         long startTime = marked + unit.toNanos(amount);
 
-        await(startTime - System.nanoTime(), NANOSECONDS);
-
+        if (clock != null) {
+            clock.advanceTo(startTime);
+        } else {
+            await(startTime - System.nanoTime(), NANOSECONDS);
+        }
         return this;
     }
 
@@ -337,7 +483,7 @@ public class Chronus implements ScheduledExecutorService {
      * @param within Your process.
      */
     public final Chronus within(int amount, TimeUnit unit, Runnable within) {
-        if (within != null && System.nanoTime() < marked + unit.toNanos(amount)) {
+        if (within != null && nanoTime() < marked + unit.toNanos(amount)) {
             within.run();
         }
         return this;
@@ -345,62 +491,207 @@ public class Chronus implements ScheduledExecutorService {
 
     /**
      * <p>
-     * Wait all task executions.
+     * Wait all task executions. The waiting thread is parked and woken up by the completion of the
+     * last task.
      * </p>
      */
     public void await() {
         awaiting.set(true);
 
+        long limit = awaitLimit;
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+
         try {
-            long start = System.currentTimeMillis();
+            if (clock != null) {
+                if (!clock.drain(limit) || count.get() != 0) {
+                    throw new Error("Task can't exceed " + NANOSECONDS.toMillis(limit) + "ms. " + dump(10));
+                }
+                return;
+            }
 
-            while (!remaining.isEmpty()) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    throw new Error(e);
+            long deadline = System.nanoTime() + limit;
+
+            while (count.get() != 0) {
+                long rest = deadline - System.nanoTime();
+
+                if (rest <= 0) {
+                    throw new Error("Task can't exceed " + NANOSECONDS.toMillis(limit) + "ms. " + dump(10) + executor());
                 }
 
-                long end = System.currentTimeMillis();
+                LockSupport.parkNanos(this, rest);
 
-                if (start + 3000 < end && !remaining.isEmpty()) {
-                    throw new Error("Task can't exceed 3000ms. Remaining tasks are " + remaining + ".\r\n" + executor());
+                if (Thread.interrupted()) {
+                    throw new Error(new InterruptedException());
                 }
             }
         } finally {
+            waiters.remove(current);
             awaiting.set(false);
-            remaining.clear();
+
+            // forget the remaining tasks
+            for (Task task : remaining) {
+                untrack(task);
+            }
+        }
+    }
+
+    /**
+     * Describe the task statistics and the slowest remaining tasks. The remaining tasks are sorted
+     * by the time they are stuck, the running task is stuck since its start and the waiting task is
+     * stuck since its intended fire time. So it tells whether the tasks are starved or slow.
+     * 
+     * @param size The maximum number of tasks to describe.
+     * @return A description.
+     */
+    public String dump(int size) {
+        long now = nanoTime();
+        List<Task> tasks = new ArrayList(remaining);
+        tasks.sort(Comparator.comparingLong((Task task) -> task.stuck(now)).reversed());
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Remaining tasks are ").append(count.get()).append(".\r\n");
+        builder.append("  queue delay (ns) : ").append(queueDelay).append("\r\n");
+        builder.append("  lateness (ns)    : ").append(lateness).append("\r\n");
+        builder.append("  run time (ns)    : ").append(runTime).append("\r\n");
+
+        for (int i = 0; i < Math.min(size, tasks.size()); i++) {
+            builder.append("  ").append(tasks.get(i).describe(now)).append("\r\n");
+        }
+        if (size < tasks.size()) {
+            builder.append("  … ").append(tasks.size() - size).append(" more\r\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Retrieve the statistics of the time from submission to start of the immediate tasks.
+     * 
+     * @return The queue delay histogram in nanoseconds.
+     */
+    public Histogram queueDelay() {
+        return queueDelay;
+    }
+
+    /**
+     * Retrieve the statistics of the time from the intended fire time to start of the scheduled
+     * tasks (including each execution of the periodic task at fixed rate).
+     * 
+     * @return The lateness histogram in nanoseconds.
+     */
+    public Histogram lateness() {
+        return lateness;
+    }
+
+    /**
+     * Retrieve the statistics of the execution time of all tasks.
+     * 
+     * @return The run time histogram in nanoseconds.
+     */
+    public Histogram runTime() {
+        return runTime;
+    }
+
+    /**
+     * Track the created task.
+     * 
+     * @param task A created task.
+     */
+    private void track(Task task) {
+        count.incrementAndGet();
+        remaining.add(task);
+    }
+
+    /**
+     * Untrack the task only once.
+     * 
+     * @param task A completed or cancelled task.
+     * @return <code>true</code> if all tasks are completed by this.
+     */
+    private boolean untrack(Task task) {
+        if (TRACKING.compareAndSet(task, 1, 0)) {
+            remaining.remove(task);
+            return count.decrementAndGet() == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Untrack the completed or cancelled task and wake up the waiting threads if all tasks are
+     * completed.
+     * 
+     * @param task A completed task.
+     */
+    private void complete(Task task) {
+        if (untrack(task)) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
         }
     }
 
     /**
-     * Freeze process.
+     * Freeze process. On the virtual clock, advance it instead.
      */
     public void await(long time, TimeUnit unit) {
-        freezeNano(unit.toNanos(time));
+        if (clock != null) {
+            clock.advance(time, unit);
+        } else {
+            freezeNano(unit.toNanos(time));
+        }
     }
 
     /**
-     * <p>
-     * Freeze process.
-     * </p>
+     * Advance the time. On the virtual clock, all tasks due up to the new instant are executed in
+     * the timestamp order. On the real clock, it is same as {@link #await(long, TimeUnit)}.
+     * 
+     * @param time A time to advance.
+     * @param unit A time unit.
+     */
+    public final Chronus advance(long time, TimeUnit unit) {
+        await(time, unit);
+
+        return this;
+    }
+
+    /**
+     * Freeze process precisely. It parks until the spin threshold before the deadline, then spins
+     * until the deadline because parking (and sleeping) overshoots by tens of microseconds. The
+     * actual overshoot is recorded in {@link #overshoot()}.
      * 
      * @param time A nano time to freeze.
      */
     private void freezeNano(long time) {
-        try {
-            long start = System.nanoTime();
-            NANOSECONDS.sleep(time);
-            long end = System.nanoTime();
+        if (time <= 0) {
+            return;
+        }
 
-            long remaining = start + time - end;
+        long deadline = System.nanoTime() + time;
+        long threshold = spinThreshold;
+        long rest;
 
-            if (0 < remaining) {
-                freezeNano(remaining);
+        while (threshold < (rest = deadline - System.nanoTime())) {
+            LockSupport.parkNanos(this, rest - threshold);
+
+            if (Thread.interrupted()) {
+                throw new Error(new InterruptedException());
             }
-        } catch (InterruptedException e) {
-            throw new Error(e);
         }
+
+        while (System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        overshoot.record(System.nanoTime() - deadline);
+    }
+
+    /**
+     * Retrieve the overshoot statistics of the real time waits (e.g. {@link #await(long, TimeUnit)}
+     * and {@link #elapse(int, TimeUnit)}).
+     * 
+     * @return The overshoot histogram in nanoseconds.
+     */
+    public Histogram overshoot() {
+        return overshoot;
     }
 
     /**
@@ -411,6 +702,21 @@ public class Chronus implements ScheduledExecutorService {
         /** The actual task. */
         private final Callable<V> callable;
 
+        /** The tracking state (1 is tracked). */
+        volatile int tracking = 1;
+
+        /** The submission time in nanoseconds. */
+        final long enqueued = nanoTime();
+
+        /** The intended fire time in nanoseconds. */
+        long intended = enqueued;
+
+        /** The last start time in nanoseconds. */
+        volatile long started;
+
+        /** The running state. */
+        volatile boolean running;
+
         /**
          * @param task
          */
@@ -431,8 +737,7 @@ public class Chronus implements ScheduledExecutorService {
         Task(Callable task) {
             this.callable = task;
 
-            // System.out.println("add task " + this);
-            remaining.add(this);
+            track(this);
         }
 
         /**
@@ -452,15 +757,74 @@ public class Chronus implements ScheduledExecutorService {
          */
         @Override
         public V call() throws Exception {
+            long start = started = nanoTime();
+            running = true;
+
+            if (intended == enqueued) {
+                queueDelay.record(start - enqueued);
+            } else {
+                lateness.record(start - intended);
+            }
+
             try {
                 return callable.call();
             } finally {
-                if (remaining.remove(this)) {
-                    // System.out.println("remove task " + this);
-                }
+                running = false;
+                runTime.record(nanoTime() - start);
+                complete(this);
             }
         }
 
+        /**
+         * Set the delay of the scheduled task.
+         * 
+         * @param delay A delay in nanoseconds.
+         * @return Chainable API.
+         */
+        Task<V> delay(long delay) {
+            intended = enqueued + delay;
+            return this;
+        }
+
+        /**
+         * Compute the time this task is stuck, the running task is stuck since its start and the
+         * waiting task is stuck since its intended fire time.
+         * 
+         * @param now The current time in nanoseconds.
+         * @return The stuck time in nanoseconds.
+         */
+        long stuck(long now) {
+            return running ? now - started : now - intended;
+        }
+
+        /**
+         * Describe the state and timing of this task.
+         * 
+         * @param now The current time in nanoseconds.
+         * @return A description.
+         */
+        String describe(long now) {
+            String state;
+
+            if (running) {
+                state = String.format("running %.3fms", (now - started) / 1e6);
+            } else if (intended <= now) {
+                state = String.format("waiting %.3fms (overdue %.3fms)", (now - enqueued) / 1e6, (now - intended) / 1e6);
+            } else {
+                state = String.format("waiting %.3fms (due in %.3fms)", (now - enqueued) / 1e6, (intended - now) / 1e6);
+            }
+            return state + " : " + task();
+        }
+
+        /**
+         * Retrieve the actual task for description.
+         * 
+         * @return The actual task.
+         */
+        Object task() {
+            return callable;
+        }
+
         private Future<V> future;
 
         /**
@@ -485,9 +849,7 @@ public class Chronus implements ScheduledExecutorService {
             boolean cancel = future.cancel(mayInterruptIfRunning);
 
             if (cancel) {
-                if (remaining.remove(this)) {
-                    // System.out.println("cancel task " + this);
-                }
+                complete(this);
             }
             return cancel;
         }
@@ -552,4 +914,97 @@ public class Chronus implements ScheduledExecutorService {
             }
         }
     }
+
+    /**
+     * The policy for the periodic execution which is late by one or more periods.
+     */
+    public enum Overrun {
+        /** Execute all missed executions back-to-back. */
+        CatchUp,
+
+        /** Skip the missed executions and resume on the next period. */
+        Skip;
+    }
+
+    /**
+     * The periodic task, it is tracked until it is cancelled or fails.
+     */
+    private class Periodic extends Task<Void> {
+
+        /** The actual task. */
+        private final Runnable command;
+
+        /** The period in nanoseconds. */
+        private final long interval;
+
+        /** The overrun policy. */
+        private final Overrun overrun;
+
+        /** The intended time of the next execution in nanoseconds. */
+        private long next;
+
+        /**
+         * @param command
+         * @param first
+         * @param interval
+         * @param overrun
+         */
+        private Periodic(Runnable command, long first, long interval, Overrun overrun) {
+            super((Callable) null);
+            this.command = Objects.requireNonNull(command);
+            this.next = first;
+            this.interval = interval;
+            this.overrun = overrun;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            long start = nanoTime();
+            long fire = next;
+            next += interval;
+
+            // the next execution is already due, so this is the missed one
+            if (overrun == Overrun.Skip && next <= start) {
+                return;
+            }
+
+            intended = fire;
+            started = start;
+            running = true;
+            if (0 < interval) {
+                lateness.record(start - fire);
+            }
+
+            try {
+                command.run();
+            } catch (RuntimeException | Error e) {
+                // the subsequent executions are suppressed
+                complete(this);
+                throw e;
+            } finally {
+                running = false;
+                runTime.record(nanoTime() - start);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        Object task() {
+            return command;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Void call() {
+            run();
+            return null;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ScheduledExecutorService} which executes each task on its own thread. The virtual thread
+ * is used on JDK 21 or later, otherwise the platform thread is used. The delayed task waits on the
+ * single timer thread and is handed over to its own thread when it is due, so the blocking task
+ * never holds up the other tasks.
+ */
+class ThreadPerTaskScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    /** The task executor. */
+    private final ExecutorService workers = workers();
+
+    /** The timer for delayed tasks. */
+    private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "Chronus Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 
+     */
+    ThreadPerTaskScheduler() {
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Build the thread-per-task executor. Because this library is compiled for the older JDK, the
+     * virtual thread executor is looked up reflectively.
+     * 
+     * @return The task executor.
+     */
+    private static ExecutorService workers() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK 20 or earlier (or preview feature is disabled)
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable command) {
+        workers.execute(command);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return new Hop(callable, deadline(delay, unit)).arm();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new Hop(command, deadline(initialDelay, unit), unit.toNanos(period)).arm();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new Hop(command, deadline(initialDelay, unit), -unit.toNanos(delay)).arm();
+    }
+
+    /**
+     * Compute the deadline.
+     * 
+     * @param delay A delay.
+     * @param unit A time unit.
+     * @return The deadline in nanoseconds.
+     */
+    private static long deadline(long delay, TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        timer.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = new ArrayList();
+        tasks.addAll(timer.shutdownNow());
+        tasks.addAll(workers.shutdownNow());
+        return tasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isShutdown() {
+        return workers.isShutdown();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTerminated() {
+        return timer.isTerminated() && workers.isTerminated();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        return timer.awaitTermination(timeout, unit) && workers.awaitTermination(deadline - System.nanoTime(), NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [timer=" + timer + ", workers=" + workers + "]";
+    }
+
+    /**
+     * The delayed task which is executed on its own thread. The periodic task waits on the timer
+     * again after its execution is completed, so the executions never overlap.
+     */
+    private class Hop<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        /** The deadline of the next execution in nanoseconds. */
+        private volatile long deadline;
+
+        /** The period (positive for fixed rate, negative for fixed delay, zero for one-shot). */
+        private final long period;
+
+        /** The waiting timer. */
+        private volatile ScheduledFuture<?> timer;
+
+        /**
+         * @param callable
+         * @param deadline
+         */
+        private Hop(Callable<V> callable, long deadline) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = 0;
+        }
+
+        /**
+         * @param runnable
+         * @param deadline
+         * @param period
+         */
+        private Hop(Runnable runnable, long deadline, long period) {
+            super(runnable, null);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Wait on the timer until the deadline, then hand over to its own thread.
+         * 
+         * @return This task.
+         */
+        private Hop<V> arm() {
+            timer = ThreadPerTaskScheduler.this.timer.schedule(() -> workers.execute(this), deadline - System.nanoTime(), NANOSECONDS);
+
+            // the cancellation may precede the assignment of timer
+            if (isCancelled()) {
+                timer.cancel(false);
+            }
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (period == 0) {
+                super.run();
+            } else if (runAndReset()) {
+                // the failed or cancelled task is never rescheduled
+                deadline = 0 < period ? deadline + period : System.nanoTime() - period;
+
+                try {
+                    arm();
+                } catch (RejectedExecutionException e) {
+                    cancel(false);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            ScheduledFuture<?> timer = this.timer;
+
+            if (cancelled && timer != null) {
+                timer.cancel(false);
+            }
+            return cancelled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), NANOSECONDS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(NANOSECONDS), o.getDelay(NANOSECONDS));
+        }
+    }
+}
\ No newline at end of file
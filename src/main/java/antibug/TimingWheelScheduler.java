@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ScheduledExecutorService} backed by the hierarchical timing wheel. Scheduling and
+ * cancellation are O(1) lock-free queue operations regardless of the number of pending tasks, so
+ * it can reproduce the production timer load (e.g. millions of pending request timeouts) in test.
+ * <p>
+ * The single timer thread owns the wheel, it moves the scheduled tasks into the wheel and hands
+ * the due tasks over to the worker pool on each tick. The wheel has 11 levels of 64 slots, the
+ * slot of level N spans 64<sup>N</sup> ticks and the tasks in it are cascaded down to the lower
+ * level when the wheel reaches it. The task is executed on the first tick at or after its delay,
+ * so the tick is the resolution of this scheduler.
+ * </p>
+ * <p>
+ * The pending delayed tasks are cancelled on shutdown.
+ * </p>
+ */
+public class TimingWheelScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    /** The number of bits per level. */
+    private static final int BITS = 6;
+
+    /** The number of slots per level. */
+    private static final int SLOTS = 1 << BITS;
+
+    /** The slot mask. */
+    private static final int MASK = SLOTS - 1;
+
+    /** The number of levels, it covers all positive long ticks. */
+    private static final int LEVELS = 11;
+
+    /** The tick duration in nanoseconds. */
+    private final long tick;
+
+    /** The base time in nanoseconds. */
+    private final long start = System.nanoTime();
+
+    /** The task executor. */
+    private final ExecutorService workers;
+
+    /** The wheel, it is accessed only by the timer thread. */
+    private final Bucket[][] wheel = new Bucket[LEVELS][SLOTS];
+
+    /** The scheduled tasks which are not in the wheel yet. */
+    private final ConcurrentLinkedQueue<Job> scheduled = new ConcurrentLinkedQueue();
+
+    /** The cancelled tasks which may be in the wheel. */
+    private final ConcurrentLinkedQueue<Job> cancelled = new ConcurrentLinkedQueue();
+
+    /** The timer thread. */
+    private final Thread timer;
+
+    /** The next tick to process, it is accessed only by the timer thread. */
+    private long current;
+
+    /** The state. */
+    private volatile boolean shutdown;
+
+    /**
+     * Build the scheduler which executes tasks on the thread pool sized by the common pool
+     * parallelism.
+     * 
+     * @param tick A tick duration.
+     * @param unit A time unit.
+     */
+    public TimingWheelScheduler(long tick, TimeUnit unit) {
+        this(tick, unit, Executors.newFixedThreadPool(ForkJoinPool.getCommonPoolParallelism()));
+    }
+
+    /**
+     * Build the scheduler which executes tasks on the specified executor.
+     * 
+     * @param tick A tick duration.
+     * @param unit A time unit.
+     * @param workers A task executor.
+     */
+    public TimingWheelScheduler(long tick, TimeUnit unit, ExecutorService workers) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be positive.");
+        }
+        this.tick = unit.toNanos(tick);
+        this.workers = workers;
+
+        for (Bucket[] level : wheel) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new Bucket();
+            }
+        }
+
+        timer = new Thread(this::run, "Chronus Timing Wheel");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable command) {
+        workers.execute(command);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(new Job(command, null, deadline(delay, unit), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(new Job(callable, deadline(delay, unit), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return enqueue(new Job(command, null, deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return enqueue(new Job(command, null, deadline(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    /**
+     * Compute the deadline.
+     * 
+     * @param delay A delay.
+     * @param unit A time unit.
+     * @return The deadline in nanoseconds.
+     */
+    private long deadline(long delay, TimeUnit unit) {
+        return later(System.nanoTime(), unit.toNanos(Math.max(0, delay)));
+    }
+
+    /**
+     * Compute the time after the specified delay. The too long delay is clamped to the half of
+     * {@link Long#MAX_VALUE} like {@link java.util.concurrent.ScheduledThreadPoolExecutor} so that
+     * the difference from the current time never overflows.
+     * 
+     * @param time A nano time.
+     * @param delay A non-negative delay in nanoseconds.
+     * @return The nano time after the delay.
+     */
+    private static long later(long time, long delay) {
+        return time + Math.min(delay, Long.MAX_VALUE >> 1);
+    }
+
+    /**
+     * Pass the task to the timer thread.
+     * 
+     * @param job A task.
+     * @return The task.
+     */
+    private <V> Job<V> enqueue(Job<V> job) {
+        if (shutdown) {
+            throw new RejectedExecutionException();
+        }
+
+        // round up, the task must not be executed before its deadline
+        job.expiry = -Math.floorDiv(start - job.deadline, tick);
+        scheduled.add(job);
+        return job;
+    }
+
+    /**
+     * The timer loop.
+     */
+    private void run() {
+        while (true) {
+            Job job;
+
+            while ((job = cancelled.poll()) != null) {
+                if (job.bucket != null) {
+                    job.bucket.remove(job);
+                }
+            }
+
+            if (shutdown) {
+                break;
+            }
+
+            while ((job = scheduled.poll()) != null) {
+                if (!job.isCancelled()) {
+                    insert(job);
+                }
+            }
+
+            long due = Math.floorDiv(System.nanoTime() - start, tick);
+            while (current <= due) {
+                advance();
+            }
+
+            long wait = start + current * tick - System.nanoTime();
+            if (0 < wait) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+
+        // cancel all pending tasks
+        for (Bucket[] level : wheel) {
+            for (Bucket bucket : level) {
+                Job job = bucket.clear();
+                while (job != null) {
+                    Job next = job.next;
+                    job.cancel(false);
+                    job = next;
+                }
+            }
+        }
+        while (!scheduled.isEmpty()) {
+            scheduled.poll().cancel(false);
+        }
+        cancelled.clear();
+    }
+
+    /**
+     * Put the task into the slot of the suitable level.
+     * 
+     * @param job A task.
+     */
+    private void insert(Job job) {
+        long expiry = Math.max(job.expiry, current);
+        long delta = expiry - current;
+
+        int level = 0;
+        while (level < LEVELS - 1 && (delta >>> (BITS * (level + 1))) != 0) {
+            level++;
+        }
+        wheel[level][(int) (expiry >>> (BITS * level)) & MASK].add(job);
+    }
+
+    /**
+     * Process the current tick. Cascade the higher level slots which the wheel reaches, then
+     * execute all tasks in the current slot of the lowest level.
+     */
+    private void advance() {
+        for (int level = 1; level < LEVELS && (current & ((1L << (BITS * level)) - 1)) == 0; level++) {
+            Job job = wheel[level][(int) (current >>> (BITS * level)) & MASK].clear();
+
+            while (job != null) {
+                Job next = job.next;
+                insert(job);
+                job = next;
+            }
+        }
+
+        Job job = wheel[0][(int) current & MASK].clear();
+        while (job != null) {
+            Job next = job.next;
+            job.next = null;
+
+            try {
+                workers.execute(job);
+            } catch (RejectedExecutionException e) {
+                job.cancel(false);
+            }
+            job = next;
+        }
+        current++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(timer);
+        workers.shutdown();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        LockSupport.unpark(timer);
+        return workers.shutdownNow();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTerminated() {
+        return shutdown && !timer.isAlive() && workers.isTerminated();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        NANOSECONDS.timedJoin(timer, unit.toNanos(timeout));
+        return !timer.isAlive() && workers.awaitTermination(deadline - System.nanoTime(), NANOSECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [tick=" + tick + "ns, workers=" + workers + "]";
+    }
+
+    /**
+     * The slot of wheel, it is the doubly linked list of tasks.
+     */
+    private static class Bucket {
+
+        /** The first task. */
+        private Job head;
+
+        /** The last task. */
+        private Job tail;
+
+        /**
+         * Add the task at last.
+         * 
+         * @param job A task.
+         */
+        private void add(Job job) {
+            job.bucket = this;
+            job.prev = tail;
+            job.next = null;
+
+            if (tail == null) {
+                head = job;
+            } else {
+                tail.next = job;
+            }
+            tail = job;
+        }
+
+        /**
+         * Remove the task.
+         * 
+         * @param job A task in this bucket.
+         */
+        private void remove(Job job) {
+            if (job.prev == null) {
+                head = job.next;
+            } else {
+                job.prev.next = job.next;
+            }
+
+            if (job.next == null) {
+                tail = job.prev;
+            } else {
+                job.next.prev = job.prev;
+            }
+            job.prev = job.next = null;
+            job.bucket = null;
+        }
+
+        /**
+         * Remove all tasks. The returned tasks are still linked by {@link Job#next}.
+         * 
+         * @return The first task or null.
+         */
+        private Job clear() {
+            Job job = head;
+            head = tail = null;
+
+            for (Job i = job; i != null; i = i.next) {
+                i.prev = null;
+                i.bucket = null;
+            }
+            return job;
+        }
+    }
+
+    /**
+     * The task on timing wheel.
+     */
+    private class Job<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        /** The deadline in nanoseconds. */
+        private volatile long deadline;
+
+        /** The period (positive for fixed rate, negative for fixed delay, zero for one-shot). */
+        private final long period;
+
+        /** The expiry tick. */
+        private long expiry;
+
+        /** The owner slot, it is accessed only by the timer thread. */
+        private Bucket bucket;
+
+        /** The previous task in the slot. */
+        private Job prev;
+
+        /** The next task in the slot. */
+        private Job next;
+
+        /**
+         * @param runnable
+         * @param result
+         * @param deadline
+         * @param period
+         */
+        private Job(Runnable runnable, V result, long deadline, long period) {
+            super(runnable, result);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * @param callable
+         * @param deadline
+         * @param period
+         */
+        private Job(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset() && !shutdown) {
+                deadline = 0 < period ? later(deadline, period) : later(System.nanoTime(), -period);
+                try {
+                    enqueue(this);
+                } catch (RejectedExecutionException e) {
+                    cancel(false);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancel = super.cancel(mayInterruptIfRunning);
+
+            if (cancel && !shutdown) {
+                cancelled.add(this);
+            }
+            return cancel;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), NANOSECONDS);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(NANOSECONDS), o.getDelay(NANOSECONDS));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ScheduledExecutorService} driven by the manually advanced virtual clock. No task is
+ * executed until the clock is advanced, then all tasks due up to the new instant are executed in
+ * the timestamp order (in the submission order for the same timestamp) on the advancing thread.
+ * The immediate task (e.g. {@link #execute(Runnable)}) is due at the current instant.
+ */
+class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    /** The pending tasks. */
+    private final PriorityQueue<Job> queue = new PriorityQueue();
+
+    /** The current virtual time in nanoseconds. */
+    private long now;
+
+    /** The submission order. */
+    private long sequence;
+
+    /** The state. */
+    private boolean shutdown;
+
+    /**
+     * Get the current virtual time.
+     * 
+     * @return The virtual time in nanoseconds.
+     */
+    synchronized long now() {
+        return now;
+    }
+
+    /**
+     * Advance the virtual clock and execute all tasks due up to the new instant.
+     * 
+     * @param time A time to advance.
+     * @param unit A time unit.
+     */
+    void advance(long time, TimeUnit unit) {
+        long target;
+
+        synchronized (this) {
+            target = later(now, unit.toNanos(Math.max(0, time)));
+        }
+        advanceTo(target);
+    }
+
+    /**
+     * Advance the virtual clock to the specified instant and execute all tasks due up to it.
+     * 
+     * @param target A virtual time in nanoseconds.
+     */
+    void advanceTo(long target) {
+        Job job;
+
+        while ((job = next(target)) != null) {
+            job.run();
+        }
+
+        synchronized (this) {
+            // the nested advance in task may go ahead
+            now = Math.max(now, target);
+        }
+    }
+
+    /**
+     * Execute all pending tasks by advancing the virtual clock to each due time.
+     * 
+     * @param limit The maximum time to advance in nanoseconds.
+     * @return <code>true</code> if no task is pending.
+     */
+    boolean drain(long limit) {
+        long target;
+
+        synchronized (this) {
+            target = later(now, Math.max(0, limit));
+        }
+
+        Job job;
+        while ((job = next(target)) != null) {
+            job.run();
+        }
+
+        synchronized (this) {
+            return queue.isEmpty();
+        }
+    }
+
+    /**
+     * Retrieve the next due task and move the clock to its due time.
+     * 
+     * @param target The upper limit of due time.
+     * @return The due task or null.
+     */
+    private synchronized Job next(long target) {
+        Job job = queue.peek();
+
+        if (job == null || target < job.time) {
+            return null;
+        }
+        queue.poll();
+        now = Math.max(now, job.time);
+        return job;
+    }
+
+    /**
+     * Register the task.
+     * 
+     * @param job A task.
+     * @return The registered task.
+     */
+    private synchronized <V> Job<V> enqueue(Job<V> job) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Shutdown");
+        }
+        job.order = sequence++;
+        queue.add(job);
+        return job;
+    }
+
+    /**
+     * Compute the due time.
+     * 
+     * @param delay A delay.
+     * @param unit A time unit.
+     * @return The virtual time in nanoseconds.
+     */
+    private synchronized long time(long delay, TimeUnit unit) {
+        return later(now, unit.toNanos(Math.max(0, delay)));
+    }
+
+    /**
+     * Compute the time after the non-negative delay, it saturates at {@link Long#MAX_VALUE}
+     * instead of overflowing.
+     * 
+     * @param time A virtual time in nanoseconds.
+     * @param delay A non-negative delay in nanoseconds.
+     * @return The virtual time in nanoseconds.
+     */
+    private static long later(long time, long delay) {
+        try {
+            return Math.addExact(time, delay);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute(Runnable command) {
+        enqueue(new Job(command, null, time(0, NANOSECONDS), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(new Job(command, null, time(delay, unit), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(new Job(callable, time(delay, unit), 0));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return enqueue(new Job(command, null, time(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return enqueue(new Job(command, null, time(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    /**
+     * Execute all tasks on the calling thread, the virtual clock doesn't block them.
+     */
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList();
+
+        for (Callable<T> task : tasks) {
+            FutureTask<T> future = new FutureTask(task);
+            future.run();
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    /**
+     * Execute all tasks on the calling thread, the virtual clock doesn't block them.
+     */
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) {
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Execute tasks on the calling thread until one of them succeeds.
+     */
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws ExecutionException {
+        ExecutionException error = null;
+
+        for (Callable<T> task : tasks) {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                error = new ExecutionException(e);
+            }
+        }
+        if (error == null) {
+            throw new IllegalArgumentException();
+        }
+        throw error;
+    }
+
+    /**
+     * Execute tasks on the calling thread until one of them succeeds.
+     */
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws ExecutionException {
+        return invokeAny(tasks);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+
+        List<Runnable> pendings = new ArrayList(queue);
+        queue.clear();
+        return pendings;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && queue.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    /**
+     * The task on virtual clock.
+     */
+    private class Job<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+        /** The due time. */
+        private long time;
+
+        /** The period (positive for fixed rate, negative for fixed delay, zero for one-shot). */
+        private final long period;
+
+        /** The submission order. */
+        private long order;
+
+        /**
+         * @param runnable
+         * @param result
+         * @param time
+         * @param period
+         */
+        private Job(Runnable runnable, V result, long time, long period) {
+            super(runnable, result);
+            this.time = time;
+            this.period = period;
+        }
+
+        /**
+         * @param callable
+         * @param time
+         * @param period
+         */
+        private Job(Callable<V> callable, long time, long period) {
+            super(callable);
+            this.time = time;
+            this.period = period;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                synchronized (VirtualScheduler.this) {
+                    time = 0 < period ? later(time, period) : later(now, -period);
+
+                    // the saturated time is the end of time, it would be due forever
+                    if (!shutdown && time != Long.MAX_VALUE) {
+                        queue.add(this);
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            if (cancelled) {
+                synchronized (VirtualScheduler.this) {
+                    queue.remove(this);
+                }
+            }
+            return cancelled;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getDelay(TimeUnit unit) {
+            synchronized (VirtualScheduler.this) {
+                return unit.convert(time - now, NANOSECONDS);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Delayed o) {
+            if (o == this) {
+                return 0;
+            }
+
+            if (o instanceof Job) {
+                Job other = (Job) o;
+                int result = Long.compare(time, other.time);
+                return result != 0 ? result : Long.compare(order, other.order);
+            }
+            return Long.compare(getDelay(NANOSECONDS), o.getDelay(NANOSECONDS));
+        }
+    }
+}
\ No newline at end of file
@@ -33,10 +33,15 @@ import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.ProtectionDomain;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
@@ -48,7 +53,8 @@ import net.bytebuddy.agent.ByteBuddyAgent.ProcessProvider;
 import net.bytebuddy.jar.asm.ClassReader;
 import net.bytebuddy.jar.asm.ClassVisitor;
 import net.bytebuddy.jar.asm.ClassWriter;
-import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.ConstantDynamic;
+import net.bytebuddy.jar.asm.Handle;
 import net.bytebuddy.jar.asm.MethodVisitor;
 import net.bytebuddy.jar.asm.Opcodes;
 import net.bytebuddy.jar.asm.Type;
@@ -59,10 +65,34 @@ import net.bytebuddy.jar.asm.Type;
 public class Agent {
 
     /** The redefined classes. */
-    private static final Set<String> redefines = new HashSet();
+    private static final Set<String> redefines = ConcurrentHashMap.newKeySet();
 
-    /** The redefined classes. */
-    private static final Map<Class, byte[]> codes = new HashMap();
+    /** The names of the classes whose transformed code is recorded. */
+    private static final Set<String> recorded = ConcurrentHashMap.newKeySet();
+
+    /** The transformed codes which are weakly associated with the redefined classes. */
+    private static final ClassValue<AtomicReference<byte[]>> codes = new ClassValue<>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected AtomicReference<byte[]> computeValue(Class<?> type) {
+            return new AtomicReference();
+        }
+    };
+
+    /** The transformers for static translation. */
+    private static final ClassValue<TranslatorTransformer> transformers = new ClassValue<>() {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected TranslatorTransformer computeValue(Class<?> type) {
+            return new TranslatorTransformer((Class<? extends Translator>) type, null, null);
+        }
+    };
 
     /** The Instrumentation tool. */
     private volatile static Instrumentation tool;
@@ -73,7 +103,31 @@ public class Agent {
      * @param translator Your bytecode translator.
      */
     public Agent(Class<? extends Translator> translator) {
-        this(new TranslatorTransformer(translator));
+        this(translator, null);
+    }
+
+    /**
+     * Create dynamic Agent which translates not only the classes specified by
+     * {@link #transform(Class)} but also all classes accepted by the filter when they are loaded.
+     * 
+     * @param translator Your bytecode translator.
+     * @param filter The filter to accept the internal class name and its original bytecode.
+     */
+    public Agent(Class<? extends Translator> translator, BiPredicate<String, byte[]> filter) {
+        this(translator, filter, null);
+    }
+
+    /**
+     * Create dynamic Agent which translates not only the classes specified by
+     * {@link #transform(Class)} but also all classes accepted by the filter when they are loaded.
+     * 
+     * @param translator Your bytecode translator.
+     * @param filter The filter to accept the internal class name and its original bytecode.
+     * @param translated The listener which is notified of the internal class name after the class
+     *            is translated successfully.
+     */
+    public Agent(Class<? extends Translator> translator, BiPredicate<String, byte[]> filter, Consumer<String> translated) {
+        this(new TranslatorTransformer(translator, filter, translated));
     }
 
     /**
@@ -98,11 +152,41 @@ public class Agent {
      * @param target Specify the class to translate.
      */
     public void transform(Class target) {
-        try {
-            redefines.add(target.getName().replace('.', '/'));
-            tool.retransformClasses(target);
-        } catch (Exception e) {
-            throw new Error(e);
+        transform(List.of(target));
+    }
+
+    /**
+     * Force to transform all the target classes at once.
+     * 
+     * @param targets Specify the classes to translate.
+     */
+    public void transform(Class... targets) {
+        transform(Arrays.asList(targets));
+    }
+
+    /**
+     * Force to transform all the target classes at once. All classes are retransformed by one
+     * {@link Instrumentation#retransformClasses(Class...)} call, so it is much cheaper than
+     * transforming them one by one.
+     * 
+     * @param targets Specify the classes to translate.
+     */
+    public void transform(Collection<Class> targets) {
+        List<Class> modifiables = new ArrayList();
+
+        for (Class target : targets) {
+            if (target != null && tool.isModifiableClass(target)) {
+                redefines.add(target.getName().replace('.', '/'));
+                modifiables.add(target);
+            }
+        }
+
+        if (!modifiables.isEmpty()) {
+            try {
+                tool.retransformClasses(modifiables.toArray(Class[]::new));
+            } catch (Exception e) {
+                throw new Error(e);
+            }
         }
     }
 
@@ -114,7 +198,87 @@ public class Agent {
      * @return Transformed byte code to load by {@link ClassLoader}.
      */
     public static byte[] getTransformedCode(Class target) {
-        return codes.get(target);
+        // ClassValue creates the entry on lookup, so query it only for the recorded class
+        return recorded.contains(target.getName()) ? codes.get(target).get() : null;
+    }
+
+    /**
+     * Translate the specified class file without {@link Instrumentation}. This is the entry point
+     * for ahead-of-time translation.
+     * 
+     * @param bytes The original bytecode.
+     * @param translator Your bytecode translator.
+     * @param loader The class loader which can load the classes referred from the target class. It
+     *            is used to compute stack map frames.
+     * @return The translated bytecode.
+     */
+    public static byte[] translate(byte[] bytes, Class<? extends Translator> translator, ClassLoader loader) {
+        return translate(bytes, translator, loader, new ArrayList());
+    }
+
+    /**
+     * Translate the specified class file without {@link Instrumentation}. This is the entry point
+     * for ahead-of-time translation.
+     * 
+     * @param bytes The original bytecode.
+     * @param translator Your bytecode translator.
+     * @param loader The class loader which can load the classes referred from the target class. It
+     *            is used to compute stack map frames.
+     * @param records The destination of the runtime records which are registered by
+     *            {@link Translator#register(String...)}. Pass them to
+     *            {@link #restore(List, Class)} in the JVM which loads the translated class.
+     * @return The translated bytecode.
+     */
+    public static byte[] translate(byte[] bytes, Class<? extends Translator> translator, ClassLoader loader, List<String[]> records) {
+        return transformers.get(translator).translate(new ClassReader(bytes).getClassName(), bytes, loader, records);
+    }
+
+    /**
+     * Restore the runtime information which was registered while translating in other JVM (or in
+     * the past), without translation.
+     * 
+     * @param records The runtime records.
+     * @param translator Your bytecode translator.
+     */
+    public static void restore(List<String[]> records, Class<? extends Translator> translator) {
+        Translator restorer = ReflectionUtils.newInstance(translator);
+
+        for (String[] record : records) {
+            restorer.restore(record);
+        }
+    }
+
+    /**
+     * Encode the runtime records as text, one record per line and one field per tab.
+     * 
+     * @param records The runtime records.
+     * @return The encoded text.
+     */
+    public static String encode(List<String[]> records) {
+        StringBuilder builder = new StringBuilder();
+
+        for (String[] record : records) {
+            builder.append(String.join("\t", record)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Decode the runtime records from text.
+     * 
+     * @param text The encoded text.
+     * @return The runtime records.
+     * @see #encode(List)
+     */
+    public static List<String[]> decode(String text) {
+        List<String[]> records = new ArrayList();
+
+        for (String line : text.split("\n")) {
+            if (!line.isEmpty()) {
+                records.add(line.split("\t", -1));
+            }
+        }
+        return records;
     }
 
     /**
@@ -143,18 +307,17 @@ public class Agent {
     }
 
     /**
-     * Agent entry point.
+     * Agent entry point. It only holds {@link Instrumentation} to avoid dynamic self-attach, the
+     * specific tool (e.g. PowerAssert) installs its translator by itself.
      */
-    @SuppressWarnings("unused")
-    private static void premain(String args, Instrumentation instrumentation) throws Exception {
+    public static void premain(String args, Instrumentation instrumentation) throws Exception {
         tool = instrumentation;
     }
 
     /**
      * Agent entry point.
      */
-    @SuppressWarnings("unused")
-    private static void agentmain(String args, Instrumentation instrumentation) throws Exception {
+    public static void agentmain(String args, Instrumentation instrumentation) throws Exception {
         tool = instrumentation;
     }
 
@@ -166,11 +329,29 @@ public class Agent {
         /** The delegator. */
         private final Class<? extends Translator> translator;
 
+        /** The translator version for the cache key. */
+        private final String version;
+
+        /** The frame computation mode. */
+        private final boolean computeFrames;
+
+        /** The filter for eager translation. */
+        private final BiPredicate<String, byte[]> filter;
+
+        /** The listener of successful translation. */
+        private final Consumer<String> translated;
+
         /**
          * @param translator
+         * @param filter
+         * @param translated
          */
-        private TranslatorTransformer(Class<? extends Translator> translator) {
+        private TranslatorTransformer(Class<? extends Translator> translator, BiPredicate<String, byte[]> filter, Consumer<String> translated) {
             this.translator = translator;
+            this.filter = filter;
+            this.translated = translated;
+            this.version = TranslationCache.INSTANCE.version(translator);
+            this.computeFrames = ReflectionUtils.newInstance(translator).computeFrames();
         }
 
         /**
@@ -179,23 +360,33 @@ public class Agent {
          */
         @Override
         public byte[] transform(ClassLoader loader, String name, Class<?> clazz, ProtectionDomain domain, byte[] bytes) {
-            if (!redefines.contains(name)) {
+            if (name == null || (!redefines.contains(name) && (filter == null || !filter.test(name, bytes)))) {
                 return bytes;
             }
 
             try {
-                // collect local variables
-                LocalVariableManager manager = new LocalVariableManager();
-                new ClassReader(bytes).accept(manager, ClassReader.SKIP_FRAMES);
+                String key = TranslationCache.INSTANCE.key(bytes, version);
+                List<String[]> records = new ArrayList();
+                byte[] transformed = TranslationCache.INSTANCE.read(name, key, records);
+
+                if (transformed != null) {
+                    // The translated code is reused, restore the runtime information which the
+                    // translator registered (e.g. local variable names) without translation.
+                    restore(records, translator);
+                } else {
+                    transformed = translate(name, bytes, loader, records);
 
-                ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-                ClassTranslator visitor = new ClassTranslator(writer, name, manager);
-                ClassReader reader = new ClassReader(bytes);
-                reader.accept(visitor, ClassReader.EXPAND_FRAMES);
-                byte[] transformed = writer.toByteArray();
+                    TranslationCache.INSTANCE.write(name, key, transformed, records);
+                }
 
-                codes.put(clazz, transformed);
+                if (clazz != null) {
+                    codes.get(clazz).set(transformed);
+                    recorded.add(clazz.getName());
+                }
 
+                if (translated != null) {
+                    translated.accept(name);
+                }
                 return transformed;
             } catch (Throwable e) {
                 e.printStackTrace();
@@ -203,6 +394,23 @@ public class Agent {
             }
         }
 
+        /**
+         * Translate the specified class.
+         * 
+         * @param name The internal class name.
+         * @param bytes The original bytecode.
+         * @param loader The class loader to compute frames.
+         * @param records The destination of the registered runtime records.
+         * @return The translated bytecode.
+         */
+        private byte[] translate(String name, byte[] bytes, ClassLoader loader, List<String[]> records) {
+            ClassReader reader = new ClassReader(bytes);
+            ClassWriter writer = new FrameWriter(computeFrames ? ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS
+                    : ClassWriter.COMPUTE_MAXS, loader);
+            reader.accept(new ClassTranslator(writer, name, records), ClassReader.EXPAND_FRAMES);
+            return writer.toByteArray();
+        }
+
         /**
          * @version 2012/01/14 13:16:21
          */
@@ -211,17 +419,30 @@ public class Agent {
             /** The internal class name. */
             private final String className;
 
-            /** The variable manager. */
-            private final LocalVariableManager manager;
+            /** The registered runtime records. */
+            private final List<String[]> records;
+
+            /** The class file version. */
+            private int version;
 
             /**
              * @param arg0
              */
-            private ClassTranslator(ClassWriter writer, String className, LocalVariableManager manager) {
+            private ClassTranslator(ClassWriter writer, String className, List<String[]> records) {
                 super(Opcodes.ASM9, writer);
 
                 this.className = className;
-                this.manager = manager;
+                this.records = records;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(version, access, name, signature, superName, interfaces);
+
+                this.version = version;
             }
 
             /**
@@ -233,9 +454,16 @@ public class Agent {
                     MethodVisitor visitor = super.visitMethod(access, name, desc, signature, exceptions);
                     LocalVariablesSorter sorter = new LocalVariablesSorter(access, desc, visitor);
                     Translator translator = ReflectionUtils.newInstance(TranslatorTransformer.this.translator);
-                    translator.set(sorter, className, name, Type.getMethodType(desc), manager);
+                    translator.set(sorter, version, access, className, name, Type.getMethodType(desc), records);
 
-                    return translator;
+                    if (!translator.requireLocalVariables() && !translator.requirePrescan()) {
+                        return translator;
+                    }
+
+                    // buffer method body to collect local variables before translation
+                    MethodBuffer buffer = new MethodBuffer(translator);
+                    translator.variables = buffer;
+                    return buffer;
                 } catch (Exception e) {
                     throw new Error(e);
                 }
@@ -244,66 +472,28 @@ public class Agent {
     }
 
     /**
-     * @version 2013/08/29 21:19:16
+     * {@link ClassWriter} which resolves the common super class by the specified class loader.
      */
-    private static class LocalVariableManager extends ClassVisitor {
-
-        /** The collector manager. */
-        private Map<String, Variables> collectors = new HashMap();
+    private static class FrameWriter extends ClassWriter {
 
-        /**
-         * @param api
-         * @param cv
-         */
-        private LocalVariableManager(int api, ClassVisitor cv) {
-            super(api, cv);
-        }
+        /** The class loader. */
+        private final ClassLoader loader;
 
         /**
-         * @param api
+         * @param flags
+         * @param loader
          */
-        private LocalVariableManager() {
-            super(Opcodes.ASM9);
+        private FrameWriter(int flags, ClassLoader loader) {
+            super(flags);
+            this.loader = loader;
         }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-            Variables collector = new Variables();
-
-            collectors.put(name + desc, collector);
-
-            return collector;
-        }
-    }
-
-    /**
-     * @version 2013/08/29 21:20:30
-     */
-    private static class Variables extends MethodVisitor {
-
-        /** The variable map. */
-        private Map<Integer, String> names = new HashMap();
-
-        /** The variable map. */
-        private Map<Integer, Type> types = new HashMap();
-
-        /**
-         * @param api
-         */
-        private Variables() {
-            super(Opcodes.ASM9);
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
-            names.put(index, name);
-            types.put(index, Type.getType(desc));
+        protected ClassLoader getClassLoader() {
+            return loader == null ? super.getClassLoader() : loader;
         }
     }
 
@@ -324,11 +514,26 @@ public class Agent {
         /** The internal method type. */
         protected Type methodType;
 
-        /** The method identifier. */
-        protected int methodIdentifier;
+        /** The method identifier, it is assigned lazily. */
+        private int methodIdentifier = -1;
 
-        /** The local variable manager. */
-        private Variables variables;
+        /** The class file version. */
+        private int version;
+
+        /** The local variable table. */
+        private MethodBuffer variables;
+
+        /** The method access flags. */
+        private int access;
+
+        /** The actual output while pre-scanning. */
+        private MethodVisitor output;
+
+        /** The pre-scan state. */
+        private boolean prescanning;
+
+        /** The registered runtime records of the current class. */
+        private List<String[]> records;
 
         /**
          * 
@@ -340,26 +545,150 @@ public class Agent {
         /**
          * Lazy set up.
          */
-        final void set(LocalVariablesSorter visitor, String className, String methodName, Type methodDescriptor, LocalVariableManager manager) {
+        final void set(LocalVariablesSorter visitor, int version, int access, String className, String methodName, Type methodDescriptor, List<String[]> records) {
             mv = visitor;
+            this.records = records;
+            this.version = version;
+            this.access = access;
             this.className = className;
             this.classType = Type.getObjectType(className);
             this.methodName = methodName;
             this.methodType = methodDescriptor;
-            this.methodIdentifier = methodIdentifier(className, methodName, methodDescriptor);
-            this.variables = manager.collectors.get(methodName + methodDescriptor.getDescriptor());
         }
 
         /**
-         * Calculate method identifier by its signature.
+         * Declare whether this translator uses {@link #getLocalName(int)} and
+         * {@link #getLocalType(int)}. If so, the method body is buffered until its local variable
+         * table is read. Translators which don't need them should return <code>false</code> to be
+         * streamed directly.
+         * 
+         * @return The default is <code>true</code>.
+         */
+        protected boolean requireLocalVariables() {
+            return true;
+        }
+
+        /**
+         * Declare whether this translator visits the method body twice. If so, the method body is
+         * buffered and replayed to this translator with the discarding output first (see
+         * {@link #isPrescanning()}), then with the actual output. It allows the translator to know
+         * what the later code requires before writing the earlier code, e.g. the local variables
+         * which must be initialized in advance. The per-pass state should be reset in
+         * {@link #visitCode()}.
+         * 
+         * @return The default is <code>false</code>.
+         */
+        protected boolean requirePrescan() {
+            return false;
+        }
+
+        /**
+         * Check whether the current pass is pre-scan or not.
+         * 
+         * @return A result.
+         */
+        protected final boolean isPrescanning() {
+            return prescanning;
+        }
+
+        /**
+         * Switch the pre-scan state.
+         * 
+         * @param start <code>true</code> to start pre-scan, <code>false</code> to end it.
+         */
+        final void prescan(boolean start) {
+            if (start) {
+                output = mv;
+                mv = new LocalVariablesSorter(access, methodType.getDescriptor(), null);
+            } else {
+                mv = output;
+                output = null;
+            }
+            prescanning = start;
+        }
+
+        /**
+         * Declare whether the stack map frames must be recomputed after translation. Translators
+         * which neither change control flow nor add local variables alive across branch targets can
+         * return <code>false</code> to reuse the original frames, which avoids loading classes to
+         * compute their common super class.
+         * 
+         * @return The default is <code>true</code>.
+         */
+        protected boolean computeFrames() {
+            return true;
+        }
+
+        /**
+         * Register the runtime information which the translated code needs (e.g. local variable
+         * names). It is applied by {@link #restore(String...)} immediately and recorded with the
+         * translated class, so the reused translation (e.g. translation cache or ahead-of-time
+         * translation) restores it without translation. The record must not contain null, tab and
+         * line feed.
+         * 
+         * @param record The runtime record.
+         */
+        protected final void register(String... record) {
+            restore(record);
+            records.add(record);
+        }
+
+        /**
+         * Apply the runtime record which is registered by {@link #register(String...)}. The record
+         * may be registered in other JVM, so it must not depend on the state of this JVM (e.g. the
+         * method identifier).
+         * 
+         * @param record The runtime record.
+         */
+        protected void restore(String... record) {
+        }
+
+        /**
+         * Get the dense identifier of the current method. It is valid only in the current JVM, so
+         * the translated code must use {@link #loadMethodIdentifier()} instead of the literal.
+         * 
+         * @return The method identifier.
+         * @see MethodRegistry
+         */
+        protected final int methodIdentifier() {
+            if (methodIdentifier == -1) {
+                methodIdentifier = MethodRegistry.identify(className, methodName, methodType.getDescriptor());
+            }
+            return methodIdentifier;
+        }
+
+        /**
+         * Get the dense identifier of the specified method.
          * 
          * @param className
          * @param methodName
          * @param methodDescriptor
          * @return
+         * @see MethodRegistry
          */
-        protected final int methodIdentifier(String className, String methodName, Type methodDescriptor) {
-            return (className + "#" + methodName + methodDescriptor).hashCode();
+        protected final int methodIdentifier(String className, String methodName, String methodDescriptor) {
+            return MethodRegistry.identify(className, methodName, methodDescriptor);
+        }
+
+        /**
+         * Write the code which loads the identifier of the current method. The identifier is
+         * resolved at runtime once by the dynamic constant (or by the method call for the class
+         * file older than Java 11).
+         */
+        protected final void loadMethodIdentifier() {
+            String registry = Type.getInternalName(MethodRegistry.class);
+
+            if (Opcodes.V11 <= (version & 0xFFFF)) {
+                Handle bootstrap = new Handle(Opcodes.H_INVOKESTATIC, registry, "identify", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I", false);
+
+                mv.visitLdcInsn(new ConstantDynamic("methodIdentifier", "I", bootstrap, className, methodName, methodType
+                        .getDescriptor()));
+            } else {
+                mv.visitLdcInsn(className);
+                mv.visitLdcInsn(methodName);
+                mv.visitLdcInsn(methodType.getDescriptor());
+                mv.visitMethodInsn(INVOKESTATIC, registry, "identify", "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I", false);
+            }
         }
 
         /**
@@ -369,7 +698,7 @@ public class Agent {
          * @return
          */
         protected final String getLocalName(int position) {
-            return variables.names.get(position);
+            return variables().names.get(position);
         }
 
         /**
@@ -379,7 +708,19 @@ public class Agent {
          * @return
          */
         protected final Type getLocalType(int position) {
-            return variables.types.get(position);
+            return variables().types.get(position);
+        }
+
+        /**
+         * Get the local variable table.
+         * 
+         * @return The local variable table.
+         */
+        private MethodBuffer variables() {
+            if (variables == null) {
+                throw new IllegalStateException(getClass().getName() + " must require local variables.");
+            }
+            return variables;
         }
 
         /**
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import antibug.bytecode.Agent.Translator;
+import net.bytebuddy.jar.asm.AnnotationVisitor;
+import net.bytebuddy.jar.asm.Handle;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+import net.bytebuddy.jar.asm.TypePath;
+
+/**
+ * Buffer the method body to make its local variable table available before the body is visited.
+ * The events before {@link #visitCode()} are passed through immediately, the code events are
+ * recorded and replayed to the delegation at {@link #visitEnd()}. This allows the translator to
+ * know the local variable names in the same class reading pass. When the translator requires
+ * pre-scan, the code events are replayed twice.
+ */
+class MethodBuffer extends MethodVisitor {
+
+    /** The variable name map. */
+    final Map<Integer, String> names = new HashMap();
+
+    /** The variable type map. */
+    final Map<Integer, Type> types = new HashMap();
+
+    /** The recorded code events. */
+    private final List<Consumer<MethodVisitor>> events = new ArrayList();
+
+    /** The translator. */
+    private final Translator translator;
+
+    /** The state. */
+    private boolean code;
+
+    /**
+     * @param translator
+     */
+    MethodBuffer(Translator translator) {
+        super(Opcodes.ASM9, translator);
+
+        this.translator = translator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitCode() {
+        code = true;
+        events.add(MethodVisitor::visitCode);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        // ClassReader reuses the frame arrays, so copy them
+        Object[] locals = local == null ? null : Arrays.copyOf(local, numLocal);
+        Object[] stacks = stack == null ? null : Arrays.copyOf(stack, numStack);
+
+        events.add(v -> v.visitFrame(type, numLocal, locals, numStack, stacks));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitInsn(int opcode) {
+        events.add(v -> v.visitInsn(opcode));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        events.add(v -> v.visitIntInsn(opcode, operand));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        events.add(v -> v.visitVarInsn(opcode, var));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        events.add(v -> v.visitTypeInsn(opcode, type));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        events.add(v -> v.visitFieldInsn(opcode, owner, name, descriptor));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        events.add(v -> v.visitMethodInsn(opcode, owner, name, descriptor, isInterface));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrap, Object... arguments) {
+        events.add(v -> v.visitInvokeDynamicInsn(name, descriptor, bootstrap, arguments));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        events.add(v -> v.visitJumpInsn(opcode, label));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLabel(Label label) {
+        events.add(v -> v.visitLabel(label));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLdcInsn(Object value) {
+        events.add(v -> v.visitLdcInsn(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        events.add(v -> v.visitIincInsn(var, increment));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        events.add(v -> v.visitTableSwitchInsn(min, max, dflt, labels));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        events.add(v -> v.visitLookupSwitchInsn(dflt, keys, labels));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+        events.add(v -> v.visitMultiANewArrayInsn(descriptor, numDimensions));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return record(v -> v.visitInsnAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        events.add(v -> v.visitTryCatchBlock(start, end, handler, type));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return record(v -> v.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+        names.put(index, name);
+        types.put(index, Type.getType(descriptor));
+
+        events.add(v -> v.visitLocalVariable(name, descriptor, signature, start, end, index));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+        return record(v -> v.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        events.add(v -> v.visitLineNumber(line, start));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        events.add(v -> v.visitMaxs(maxStack, maxLocals));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitEnd() {
+        if (code) {
+            if (translator.requirePrescan()) {
+                translator.prescan(true);
+                replay();
+                translator.prescan(false);
+            }
+            replay();
+            events.clear();
+        }
+        super.visitEnd();
+    }
+
+    /**
+     * Replay all recorded code events.
+     */
+    private void replay() {
+        for (Consumer<MethodVisitor> event : events) {
+            event.accept(mv);
+        }
+    }
+
+    /**
+     * Record the annotation event in code.
+     *
+     * @param event An annotation creation event.
+     * @return The recording visitor.
+     */
+    private AnnotationVisitor record(Function<MethodVisitor, AnnotationVisitor> event) {
+        AnnotationBuffer buffer = new AnnotationBuffer();
+        events.add(v -> buffer.replay(event.apply(v)));
+        return buffer;
+    }
+
+    /**
+     * Buffer the annotation events.
+     */
+    private static class AnnotationBuffer extends AnnotationVisitor {
+
+        /** The recorded events. */
+        private final List<Consumer<AnnotationVisitor>> events = new ArrayList();
+
+        /**
+         *
+         */
+        private AnnotationBuffer() {
+            super(Opcodes.ASM9);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visit(String name, Object value) {
+            events.add(v -> v.visit(name, value));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitEnum(String name, String descriptor, String value) {
+            events.add(v -> v.visitEnum(name, descriptor, value));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+            AnnotationBuffer buffer = new AnnotationBuffer();
+            events.add(v -> buffer.replay(v.visitAnnotation(name, descriptor)));
+            return buffer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            AnnotationBuffer buffer = new AnnotationBuffer();
+            events.add(v -> buffer.replay(v.visitArray(name)));
+            return buffer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitEnd() {
+            events.add(AnnotationVisitor::visitEnd);
+        }
+
+        /**
+         * Replay all recorded events.
+         *
+         * @param visitor A destination.
+         */
+        private void replay(AnnotationVisitor visitor) {
+            if (visitor != null) {
+                for (Consumer<AnnotationVisitor> event : events) {
+                    event.accept(visitor);
+                }
+            }
+        }
+    }
+}
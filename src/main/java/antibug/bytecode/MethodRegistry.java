@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.bytecode;
+
+import java.lang.invoke.MethodHandles.Lookup;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interned method registry which assigns the dense sequential identifier to each method, so the
+ * runtime information of method can be stored in the array indexed by it.
+ * <p>
+ * The identifier is valid only in the current JVM. The translated code must not embed it as
+ * literal because the translated class file may be reused by another JVM (e.g. the translation
+ * cache or the ahead-of-time translation), use {@link Agent.Translator#loadMethodIdentifier()}
+ * which resolves it at runtime.
+ * </p>
+ */
+public final class MethodRegistry {
+
+    /** The registered identifiers. */
+    private static final Map<Key, Integer> identifiers = new ConcurrentHashMap();
+
+    /** The identifier generator. */
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Hide constructor.
+     */
+    private MethodRegistry() {
+    }
+
+    /**
+     * Get the identifier of the specified method. The same method always has the same identifier.
+     * 
+     * @param className An internal class name.
+     * @param methodName A method name.
+     * @param descriptor A method descriptor.
+     * @return The dense identifier.
+     */
+    public static int identify(String className, String methodName, String descriptor) {
+        Key key = new Key(className, methodName, descriptor);
+        Integer id = identifiers.get(key);
+
+        return id != null ? id : identifiers.computeIfAbsent(key, k -> counter.getAndIncrement());
+    }
+
+    /**
+     * The bootstrap method of the dynamic constant which resolves the method identifier.
+     * 
+     * @param lookup A caller.
+     * @param name A constant name.
+     * @param type A constant type.
+     * @param className An internal class name.
+     * @param methodName A method name.
+     * @param descriptor A method descriptor.
+     * @return The dense identifier.
+     */
+    public static int identify(Lookup lookup, String name, Class type, String className, String methodName, String descriptor) {
+        return identify(className, methodName, descriptor);
+    }
+
+    /**
+     * Get the number of registered methods.
+     * 
+     * @return The number of registered methods.
+     */
+    public static int size() {
+        return counter.get();
+    }
+
+    /**
+     * The method signature.
+     */
+    private static class Key {
+
+        /** The internal class name. */
+        private final String className;
+
+        /** The method name. */
+        private final String methodName;
+
+        /** The method descriptor. */
+        private final String descriptor;
+
+        /** The cached hash. */
+        private final int hash;
+
+        /**
+         * @param className
+         * @param methodName
+         * @param descriptor
+         */
+        private Key(String className, String methodName, String descriptor) {
+            this.className = className;
+            this.methodName = methodName;
+            this.descriptor = descriptor;
+            this.hash = (className.hashCode() * 31 + methodName.hashCode()) * 31 + descriptor.hashCode();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+
+                return hash == other.hash && className.equals(other.className) && methodName.equals(other.methodName) && descriptor
+                        .equals(other.descriptor);
+            }
+            return false;
+        }
+    }
+}
\ No newline at end of file
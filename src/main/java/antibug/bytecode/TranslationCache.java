@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.bytecode;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Persistent on-disk cache of translated class files. The entry is keyed by the hash of the
+ * original bytecode, the translator class name and the translator version, so any change of them
+ * invalidates the entry automatically. The translated code depends on the runtime support classes
+ * next to the translator (e.g. {@link antibug.powerassert.Journal}) and {@link Agent}, so the
+ * version is the hash of their whole code source: the jar file, or all class files in their
+ * packages. The runtime records which the translator registered (e.g. local variable names) are
+ * stored next to the bytecode, so the cache hit restores them without translation. Only the latest
+ * entry per class is kept.
+ * <p>
+ * The cache directory is specified by the system property "antibug.cache". When the property is
+ * not specified, "target/antibug" is used if the "target" directory exists in the current working
+ * directory. The value "false" disables caching.
+ */
+class TranslationCache {
+
+    /** The format version of the cache entry, increment it when the key rules change. */
+    private static final int VERSION = 3;
+
+    /** The extension of the translated class file. */
+    private static final String CLASS = "class";
+
+    /** The extension of the runtime records file. */
+    private static final String RECORDS = "records";
+
+    /** The shared cache. */
+    static final TranslationCache INSTANCE = create();
+
+    /** The cache directory. */
+    private final Path directory;
+
+    /**
+     * @param directory
+     */
+    TranslationCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the version of the specified translator.
+     *
+     * @param translator The translator class.
+     * @return The translator version or <code>null</code> if this cache is disabled.
+     */
+    String version(Class translator) {
+        if (directory == null) {
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((VERSION + translator.getName()).getBytes(StandardCharsets.UTF_8));
+            digest.update(source(translator));
+            digest.update(source(Agent.class));
+            return hex(digest.digest());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Build the cache key.
+     *
+     * @param bytes The original bytecode.
+     * @param version The translator version.
+     * @return The cache key or <code>null</code> if this cache is disabled.
+     */
+    String key(byte[] bytes, String version) {
+        if (directory == null || version == null) {
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes);
+            digest.update(version.getBytes(StandardCharsets.UTF_8));
+            return hex(digest.digest());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the cached bytecode and its runtime records.
+     *
+     * @param name The internal class name.
+     * @param key The cache key.
+     * @param records The destination of the cached runtime records.
+     * @return The cached bytecode or <code>null</code>.
+     */
+    byte[] read(String name, String key, List<String[]> records) {
+        if (key != null) {
+            try {
+                Path file = locate(name, key, CLASS);
+                Path runtime = locate(name, key, RECORDS);
+
+                if (Files.isRegularFile(file) && Files.isRegularFile(runtime)) {
+                    byte[] bytes = Files.readAllBytes(file);
+                    records.addAll(Agent.decode(Files.readString(runtime)));
+                    return bytes;
+                }
+            } catch (Exception e) {
+                // ignore broken entry, it will be overwritten
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the translated bytecode.
+     *
+     * @param name The internal class name.
+     * @param key The cache key.
+     * @param bytes The translated bytecode.
+     * @param records The runtime records which are registered in translation.
+     */
+    void write(String name, String key, byte[] bytes, List<String[]> records) {
+        if (key != null) {
+            try {
+                Files.createDirectories(directory);
+
+                // the bytecode is written at last, it means the entry is completed
+                write(locate(name, key, RECORDS), Agent.encode(records).getBytes(StandardCharsets.UTF_8));
+                write(locate(name, key, CLASS), bytes);
+                prune(name, key);
+            } catch (Exception e) {
+                // caching is best-effort
+            }
+        }
+    }
+
+    /**
+     * Write the file atomically.
+     *
+     * @param file The destination.
+     * @param bytes The contents.
+     */
+    private void write(Path file, byte[] bytes) throws Exception {
+        Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+        Files.write(temporary, bytes);
+
+        try {
+            Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (Exception e) {
+            Files.move(temporary, file, REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Delete the stale entries of the specified class.
+     *
+     * @param name The internal class name.
+     * @param key The key of the latest entry to keep.
+     */
+    private void prune(String name, String key) throws Exception {
+        Pattern pattern = Pattern.compile(Pattern.quote(name.replace('/', '.')) + "\\.[0-9a-f]{32}\\.(" + CLASS + "|" + RECORDS + ")");
+        String latest = name.replace('/', '.') + "." + key.substring(0, 32) + ".";
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, file -> pattern.matcher(file.getFileName().toString()).matches())) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().startsWith(latest)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Locate the entry file.
+     *
+     * @param name The internal class name.
+     * @param key The cache key.
+     * @param extension The file extension.
+     * @return The entry file.
+     */
+    private Path locate(String name, String key, String extension) {
+        return directory.resolve(name.replace('/', '.') + "." + key.substring(0, 32) + "." + extension);
+    }
+
+    /**
+     * Compute the hash of the code source of the specified class.
+     *
+     * @param clazz A target class.
+     * @return The hash of the code source.
+     */
+    private static byte[] source(Class clazz) throws Exception {
+        CodeSource source = clazz.getProtectionDomain().getCodeSource();
+
+        if (source == null || source.getLocation() == null || !source.getLocation().getProtocol().equals("file")) {
+            return classfile(clazz);
+        }
+        return source(Path.of(source.getLocation().toURI()), clazz.getPackageName());
+    }
+
+    /**
+     * Compute the hash of the code source.
+     *
+     * @param location The jar file or the class directory.
+     * @param packageName The package name to hash if the location is directory.
+     * @return The hash of the code source.
+     */
+    static byte[] source(Path location, String packageName) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        if (Files.isRegularFile(location)) {
+            digest.update(Files.readAllBytes(location));
+        } else {
+            List<Path> files = new ArrayList();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(location.resolve(packageName.replace('.', '/')), "*.class")) {
+                stream.forEach(files::add);
+            }
+            Collections.sort(files);
+
+            for (Path file : files) {
+                digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(file));
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Read the class file of the specified class.
+     *
+     * @param clazz A target class.
+     * @return The class file contents.
+     */
+    private static byte[] classfile(Class clazz) throws Exception {
+        try (InputStream input = clazz.getResourceAsStream(clazz.getName().substring(clazz.getName().lastIndexOf('.') + 1) + ".class")) {
+            return input == null ? new byte[0] : input.readAllBytes();
+        }
+    }
+
+    /**
+     * Helper method to format digest.
+     *
+     * @param digest A digest.
+     * @return The hexadecimal text.
+     */
+    private static String hex(byte[] digest) {
+        return String.format("%064x", new BigInteger(1, digest));
+    }
+
+    /**
+     * Create the shared cache by the system configuration.
+     *
+     * @return The configured cache.
+     */
+    private static TranslationCache create() {
+        String value = System.getProperty("antibug.cache");
+
+        if (value == null) {
+            Path target = Path.of("target");
+            return new TranslationCache(Files.isDirectory(target) ? target.resolve("antibug") : null);
+        } else if (value.isBlank() || value.equalsIgnoreCase("false")) {
+            return new TranslationCache(null);
+        } else {
+            return new TranslationCache(Path.of(value));
+        }
+    }
+}
@@ -52,11 +52,10 @@ interface Journal {
     /**
      * Write local variable value.
      * 
-     * @param methodId A method id.
      * @param index A local variable index.
      * @param variable A value.
      */
-    void local(int methodId, int index, Object variable);
+    void local(int index, Object variable);
 
     /**
      * Write field access.
@@ -64,9 +63,8 @@ interface Journal {
      * @param expression
      * @param description
      * @param variable
-     * @param methodId A accessing method id.
      */
-    void field(String expression, String description, Object variable, int methodId);
+    void field(String expression, String description, Object variable);
 
     /**
      * Write static field access.
@@ -81,11 +79,10 @@ interface Journal {
     /**
      * Write increment operation.
      * 
-     * @param methodId A method id.
      * @param index A local variable index.
      * @param increment A increment value.
      */
-    void increment(int methodId, int index, int increment);
+    void increment(int index, int increment);
 
     /**
      * Write instanceof operation.
@@ -9,9 +9,15 @@
  */
 package antibug.powerassert;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import antibug.bytecode.Agent;
 
@@ -23,11 +29,127 @@ public class PowerAssert {
     /** For test. */
     static Consumer<PowerAssertionError> errorCapture;
 
-    /** The recode for the translated classes. */
-    private static final Set<String> translated = new CopyOnWriteArraySet();
+    /** The completed translation. */
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
 
-    /** The actual translator. */
-    private static final Agent agent = new Agent(PowerAssertTranslator.class);
+    /** The translation of each class, it is completed when the class is translated. */
+    private static final Map<String, CompletableFuture<Void>> translations = new ConcurrentHashMap();
+
+    /** The state whether the current thread is re-running the failed test. */
+    private static final ThreadLocal<Boolean> rerunning = new ThreadLocal();
+
+    /** The package prefixes which are never translated eagerly. */
+    private static final String[] excludes = {"java/", "javax/", "jdk/", "sun/", "com/sun/", "org/junit/", "org/opentest4j/",
+            "org/apiguardian/", "net/bytebuddy/", "antibug/"};
+
+    /** The actual translator. (lazy, the class translated in build time doesn't need it) */
+    private static Agent agent;
+
+    /**
+     * Java agent entry point. Specify this jar by <code>-javaagent</code> option to translate the
+     * assertion code eagerly when the class is loaded. It avoids dynamic self-attach (which is slow
+     * and requires <code>-XX:+EnableDynamicAgentLoading</code> on recent JDK) and the re-run of
+     * the failed test.
+     * <p>
+     * The agent argument is the comma separated list of class name prefixes to translate (e.g.
+     * <code>-javaagent:antibug.jar=com.example.,org.acme.</code>). If it is omitted, all classes
+     * having assert statement are translated except for JDK, JUnit and antibug itself.
+     * </p>
+     * 
+     * @param args The class name prefixes.
+     * @param instrumentation The instrumentation tool.
+     */
+    public static synchronized void premain(String args, Instrumentation instrumentation) throws Exception {
+        Agent.premain(args, instrumentation);
+
+        String[] includes = args == null || args.isBlank() ? new String[0]
+                : Stream.of(args.split(",")).map(String::strip).filter(v -> !v.isEmpty()).map(v -> v.replace('.', '/')).toArray(String[]::new);
+
+        // mark the class after translation, the class which failed to translate keeps the lazy
+        // translation and re-run
+        agent = new Agent(PowerAssertTranslator.class, (name, bytes) -> accept(name, includes) && PowerAssertCompiler
+                .requireTranslation(bytes), name -> markTranslated(name.replace('/', '.')));
+    }
+
+    /**
+     * Record the specified class as translated.
+     * 
+     * @param name The class name.
+     * @return <code>true</code> if the class is recorded newly.
+     */
+    static boolean markTranslated(String name) {
+        return translations.putIfAbsent(name, COMPLETED) == null;
+    }
+
+    /**
+     * Translate the specified class and its nest mates only once. When the translation is already
+     * started by other thread (e.g. parallel test execution), the returned future is shared.
+     * 
+     * @param clazz A failed class.
+     * @return The translation.
+     */
+    static CompletableFuture<Void> translate(Class clazz) {
+        CompletableFuture<Void> created = new CompletableFuture();
+        CompletableFuture<Void> translation = translations.putIfAbsent(clazz.getName(), created);
+
+        if (translation != null) {
+            return translation;
+        }
+
+        try {
+            List<Class> classes = new ArrayList();
+            classes.add(clazz);
+
+            for (Class related : related(clazz)) {
+                if (translations.putIfAbsent(related.getName(), created) == null) {
+                    classes.add(related);
+                }
+            }
+            agent().transform(classes);
+            created.complete(null);
+        } catch (Throwable e) {
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Get the actual translator.
+     * 
+     * @return The agent.
+     */
+    private static synchronized Agent agent() {
+        if (agent == null) {
+            agent = new Agent(PowerAssertTranslator.class);
+        }
+        return agent;
+    }
+
+    /**
+     * Check whether the specified class should be translated eagerly or not.
+     * 
+     * @param name The internal class name.
+     * @param includes The accepted prefixes.
+     * @return A result.
+     */
+    static boolean accept(String name, String[] includes) {
+        for (String exclude : excludes) {
+            if (name.startsWith(exclude)) {
+                return false;
+            }
+        }
+
+        if (includes.length == 0) {
+            return true;
+        }
+
+        for (String include : includes) {
+            if (name.startsWith(include)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * @param error
@@ -48,7 +170,9 @@ public class PowerAssert {
                 Throwable cause = error;
 
                 while (cause != null) {
-                    if (cause instanceof AssertionError) {
+                    // assert statement throws AssertionError exactly, its subclasses (e.g.
+                    // AssertionFailedError of JUnit) are not the target of re-run
+                    if (cause.getClass() == AssertionError.class) {
                         // should we print this error message in detal?
                         // if (description.getAnnotation(PowerAssertOff.class) == null &&
                         // !description.getTestClass()
@@ -56,20 +180,52 @@ public class PowerAssert {
 
                         Class clazz = Class.forName(cause.getStackTrace()[0].getClassName());
 
-                        // translate assertion code only once
-                        if (translated.add(clazz.getName())) {
-                            agent.transform(clazz);
+                        // The assertion code is translated only once, the other tests which failed
+                        // in the old code wait for the translation and re-run the translated code.
+                        // The translated code throws PowerAssertionError, so the exact
+                        // AssertionError means the old code ran even if the translation has been
+                        // completed by other test already. Re-run is performed at most once for
+                        // each test execution.
+                        if (rerunning.get() == null) {
+                            translate(clazz).join();
 
-                            testExecutor.run();
+                            rerunning.set(Boolean.TRUE);
+                            try {
+                                testExecutor.run();
+                            } finally {
+                                rerunning.remove();
+                            }
                             return;
                         }
                     }
                     cause = cause.getCause();
                 }
                 errorExecutor.accept(error);
-            } catch (ClassNotFoundException e) {
-                errorExecutor.accept(e);
+            } catch (ClassNotFoundException | CompletionException e) {
+                errorExecutor.accept(error);
+            }
+        }
+    }
+
+    /**
+     * Collect all nest mates (nested, local and anonymous classes which may contain assertion or
+     * lambda code) of the specified class to translate them at once.
+     * 
+     * @param clazz A failed class.
+     * @return The related classes.
+     */
+    static List<Class> related(Class clazz) {
+        List<Class> classes = new ArrayList();
+
+        try {
+            for (Class member : clazz.getNestHost().getNestMembers()) {
+                if (member != clazz) {
+                    classes.add(member);
+                }
             }
+        } catch (Throwable e) {
+            // some nest member can't be loaded, translate the failed class only
         }
+        return classes;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import antibug.bytecode.Agent;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+
+/**
+ * Ahead-of-time PowerAssert translator. It rewrites all class files which contain assert statement
+ * in the specified directory, so the failed assertion renders its detail on the first run without
+ * attaching agent and re-running the test.
+ * <p>
+ * Run it as a build step after test compilation with the test classpath, e.g. by
+ * exec-maven-plugin's <code>java</code> goal (<code>classpathScope=test</code>) or Bee's task.
+ * </p>
+ * <pre>
+ * java -cp &lt;test classpath&gt; antibug.powerassert.PowerAssertCompiler target/test-classes
+ * </pre>
+ * <p>
+ * The runtime records of the translation (e.g. local variable names) are written in
+ * "META-INF/antibug/records" of the same directory. The translated class only queues itself when it
+ * is initialized, and the records are loaded lazily on the first assertion failure.
+ * </p>
+ */
+public class PowerAssertCompiler {
+
+    /** The directory of runtime records. */
+    private static final String RECORDS = "META-INF/antibug/records/";
+
+    /** The translated classes whose runtime records are not restored yet. */
+    private static final Queue<Class> pending = new ConcurrentLinkedQueue();
+
+    /** The internal name of this class, it is also used as the marker of translated class. */
+    private static final String INTERNAL_NAME = Type.getInternalName(PowerAssertCompiler.class);
+
+    /**
+     * Translate all classes in the specified directories. (default is "target/test-classes")
+     *
+     * @param args The class directories.
+     */
+    public static void main(String... args) {
+        if (args.length == 0) {
+            args = new String[] {"target/test-classes"};
+        }
+
+        for (String arg : args) {
+            Path directory = Path.of(arg);
+            int count = compile(directory);
+
+            System.out.println("PowerAssert translated " + count + " classes in " + directory.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Translate all classes in the specified directory.
+     *
+     * @param directory A class directory.
+     * @return The number of translated classes.
+     */
+    public static int compile(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        try (Stream<Path> stream = Files.walk(directory)) {
+            List<Path> files = stream.filter(file -> file.toString().endsWith(".class"))
+                    .filter(file -> !directory.relativize(file).startsWith("META-INF"))
+                    .collect(Collectors.toList());
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {directory.toUri().toURL()}, Thread.currentThread()
+                    .getContextClassLoader())) {
+                int count = 0;
+
+                for (Path file : files) {
+                    byte[] bytes = Files.readAllBytes(file);
+
+                    if (requireTranslation(bytes)) {
+                        List<String[]> records = new ArrayList();
+                        byte[] translated = mark(Agent.translate(bytes, PowerAssertTranslator.class, loader, records));
+
+                        Path record = directory.resolve(RECORDS + new ClassReader(bytes).getClassName() + ".records");
+                        Files.createDirectories(record.getParent());
+                        Files.writeString(record, Agent.encode(records));
+
+                        Files.write(file, translated);
+                        count++;
+                    }
+                }
+                return count;
+            }
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * Register the class which is translated in build time. The translated class calls this method
+     * from its static initializer, its runtime information is restored by {@link #restore()} on
+     * demand.
+     *
+     * @param clazz A translated class.
+     */
+    public static void restore(Class clazz) {
+        if (PowerAssert.markTranslated(clazz.getName())) {
+            pending.add(clazz);
+        }
+    }
+
+    /**
+     * Restore the runtime information of all pending classes. The class stays in the queue until
+     * its records are restored, so the concurrent caller never sees the half-restored state.
+     */
+    static void restore() {
+        if (!pending.isEmpty()) {
+            synchronized (pending) {
+                Class clazz;
+
+                while ((clazz = pending.peek()) != null) {
+                    try (InputStream input = clazz.getClassLoader().getResourceAsStream(RECORDS + Type.getInternalName(clazz) + ".records")) {
+                        if (input != null) {
+                            Agent.restore(Agent.decode(new String(input.readAllBytes(), StandardCharsets.UTF_8)), PowerAssertTranslator.class);
+                        }
+                    } catch (IOException e) {
+                        throw new IOError(e);
+                    } finally {
+                        pending.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the specified class requires translation or not.
+     *
+     * @param bytes A class file.
+     * @return A result.
+     */
+    static boolean requireTranslation(byte[] bytes) {
+        String pool = new String(bytes, StandardCharsets.ISO_8859_1);
+
+        return pool.contains(utf8("$assertionsDisabled")) && !pool.contains(utf8(INTERNAL_NAME));
+    }
+
+    /**
+     * Build the exact constant pool entry (CONSTANT_Utf8) of the specified ASCII text.
+     *
+     * @param text A text.
+     * @return The constant pool entry.
+     */
+    private static String utf8(String text) {
+        return new StringBuilder().append((char) 1)
+                .append((char) (text.length() >> 8))
+                .append((char) (text.length() & 0xFF))
+                .append(text)
+                .toString();
+    }
+
+    /**
+     * Insert the invocation of {@link #restore(Class)} into the static initializer.
+     *
+     * @param bytes A translated class file.
+     * @return A marked class file.
+     */
+    private static byte[] mark(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+
+            /** The internal class name. */
+            private String name;
+
+            /** The state. */
+            private boolean initializer;
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(version, access, name, signature, superName, interfaces);
+                this.name = name;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+
+                if (!name.equals("<clinit>")) {
+                    return visitor;
+                }
+
+                initializer = true;
+                return new MethodVisitor(Opcodes.ASM9, visitor) {
+
+                    /**
+                     * {@inheritDoc}
+                     */
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        restore(mv);
+                    }
+                };
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void visitEnd() {
+                if (!initializer) {
+                    MethodVisitor visitor = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+                    visitor.visitCode();
+                    restore(visitor);
+                    visitor.visitInsn(Opcodes.RETURN);
+                    visitor.visitMaxs(0, 0);
+                    visitor.visitEnd();
+                }
+                super.visitEnd();
+            }
+
+            /**
+             * Write the invocation of {@link PowerAssertCompiler#restore(Class)}.
+             *
+             * @param visitor A code writer.
+             */
+            private void restore(MethodVisitor visitor) {
+                visitor.visitLdcInsn(Type.getObjectType(name));
+                visitor.visitMethodInsn(Opcodes.INVOKESTATIC, INTERNAL_NAME, "restore", "(Ljava/lang/Class;)V", false);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+}
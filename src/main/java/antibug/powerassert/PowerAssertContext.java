@@ -14,12 +14,16 @@ import static net.bytebuddy.jar.asm.Type.*;
 import java.lang.reflect.Array;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringJoiner;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.bytebuddy.jar.asm.Type;
 
@@ -28,60 +32,158 @@ public class PowerAssertContext implements Journal {
     /** The zero object. */
     private static final Integer Zero = Integer.valueOf(0);
 
-    /** The local variable name mapping. */
-    private static final Map<Integer, List<Supplier<String[]>>> locals = new ConcurrentHashMap();
+    /** The local variable table for each method, it is indexed by the method identifier. */
+    private static volatile AtomicReferenceArray<LocalVariables> locals = new AtomicReferenceArray(1024);
+
+    /** The expression templates for each assertion site. */
+    private static final Map<String, Template[]> templates = new ConcurrentHashMap();
+
+    /** The maximum number of templates for each assertion site. */
+    private static final int MAX_TEMPLATES = 16;
+
+    /** The maximum number of assertion sites which hold templates. */
+    private static final int MAX_SITES = 1024;
+
+    /** The kind of journal call. */
+    private static final int ARRAY_INDEX = 0, ARRAY_NEW = 1, ARRAY_STORE = 2, CONSTANT = 3, CONDITION = 4, CONSTRUCTOR = 5,
+            FIELD = 6, FIELD_STATIC = 7, INCREMENT = 8, INSTANCE_OF = 9, LOCAL = 10, METHOD = 11, METHOD_STATIC = 12,
+            NEGATIVE = 13, OPERATOR = 14, LAMBDA = 15, METHOD_REFERENCE = 16;
+
+    /** The assertion site. */
+    private final String site;
+
+    /** The identifier of the method which declares the assertion. */
+    private final int methodId;
+
+    /** The recorded journal calls (the kind and the static arguments). */
+    private final List<Object[]> calls = new ArrayList();
+
+    /** The recorded values. */
+    private final List<Object> values = new ArrayList();
 
     /** The operand stack frame. */
-    ArrayDeque<Operand> stack = new ArrayDeque();
+    private ArrayDeque<Operand> stack;
 
     /** The using operand list. */
-    ArrayList<Operand> operands = new ArrayList();
+    private ArrayList<Operand> operands;
+
+    /** The value sources of the using operands. */
+    private ArrayList<Integer> sources;
+
+    /** The top level operand which is excluded from the variable list. */
+    private Operand top;
+
+    /** The operand indices of the compared pair (e.g. a == b, a.equals(b)) or null. */
+    private int[] compared;
+
+    /** The index of the journal call in interpretation. */
+    private int current;
 
     /** The incremetn state. */
     private String nextIncrement;
 
-    public static List<Supplier<String[]>> getLocalVariable(int methodId) {
-        return locals.get(methodId);
+    /**
+     * Create context for the unknown assertion site.
+     */
+    public PowerAssertContext() {
+        this(null, -1);
     }
 
     /**
-     * Register local variable.
+     * Create context for the specified assertion site.
      * 
-     * @param methodId
-     * @param name
-     * @param description
+     * @param site The assertion site identifier.
+     * @param methodId The identifier of the method which declares the assertion.
      */
-    public static void registerLocalVariable(int methodId, String name, String description, int index) {
-        registerLocalVariable(methodId, index, () -> new String[] {name, description}, true);
+    public PowerAssertContext(String site, int methodId) {
+        this.site = site;
+        this.methodId = methodId;
     }
 
     /**
-     * Register local variable.
+     * Get the number of assertion sites which hold templates.
      * 
-     * @param methodId
-     * @param index
-     * @param resolver
-     * @param override
+     * @return The number of sites.
      */
-    public static synchronized void registerLocalVariable(int methodId, int index, Supplier<String[]> resolver, boolean override) {
-        List<Supplier<String[]>> local = locals.get(methodId);
+    static int templateSites() {
+        return templates.size();
+    }
 
-        if (local == null) {
-            local = new ArrayList();
+    /**
+     * Get the local variable.
+     * 
+     * @param methodId A method identifier.
+     * @param index A local variable index.
+     * @return The pair of name and description or null.
+     */
+    static String[] getLocalVariable(int methodId, int index) {
+        LocalVariables variables = find(methodId);
 
-            locals.put(methodId, local);
-        }
+        return variables == null ? null : variables.get(index);
+    }
 
-        // ensure size
-        for (int i = local.size(); i < index + 1; i++) {
-            local.add(null);
-        }
+    /**
+     * Publish the local variable table of the method. The table must not be modified after this.
+     * 
+     * @param methodId A method identifier.
+     * @param variables The pairs of name and description by index, the undeclared index is null.
+     */
+    public static void registerLocalVariables(int methodId, String[][] variables) {
+        table(methodId).publish(variables);
+    }
 
-        if (0 <= index) {
-            if (override || local.get(index) == null) {
-                local.set(index, resolver);
+    /**
+     * Link the local variable of lambda method to the captured variable of the enclosing method.
+     * The declared variable of lambda method takes precedence over the link.
+     * 
+     * @param methodId A lambda method identifier.
+     * @param index A local variable index in lambda method.
+     * @param enclosingId An enclosing method identifier.
+     * @param enclosingIndex A local variable index in enclosing method.
+     */
+    public static void linkLocalVariable(int methodId, int index, int enclosingId, int enclosingIndex) {
+        table(methodId).link(index, enclosingId, enclosingIndex);
+    }
+
+    /**
+     * Find the local variable table without lock. The tables of the classes which are translated
+     * in build time are restored here lazily.
+     * 
+     * @param methodId A method identifier.
+     * @return The table or null.
+     */
+    private static LocalVariables find(int methodId) {
+        PowerAssertCompiler.restore();
+
+        AtomicReferenceArray<LocalVariables> tables = locals;
+
+        return 0 <= methodId && methodId < tables.length() ? tables.get(methodId) : null;
+    }
+
+    /**
+     * Find or create the local variable table. It is called only in translation.
+     * 
+     * @param methodId A method identifier.
+     * @return The table.
+     */
+    private static synchronized LocalVariables table(int methodId) {
+        AtomicReferenceArray<LocalVariables> tables = locals;
+
+        if (tables.length() <= methodId) {
+            AtomicReferenceArray<LocalVariables> grown = new AtomicReferenceArray(Math.max(tables.length() * 2, methodId + 1));
+
+            for (int i = 0; i < tables.length(); i++) {
+                grown.set(i, tables.get(i));
             }
+            locals = tables = grown;
+        }
+
+        LocalVariables table = tables.get(methodId);
+
+        if (table == null) {
+            tables.set(methodId, table = new LocalVariables());
         }
+        return table;
     }
 
     /**
@@ -89,12 +191,19 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void arrayIndex(Object value) {
+        record(value, ARRAY_INDEX);
+    }
+
+    /**
+     * Interpret {@link #arrayIndex}.
+     */
+    private void interpretArrayIndex(Object value) {
         Operand index = stack.pollLast();
         Operand array = stack.pollLast();
         Operand operand = new Variable(array + "[" + index + "]", array.getType().getElementType(), value);
 
         stack.add(operand);
-        operands.add(operand);
+        use(operand);
     }
 
     /**
@@ -102,12 +211,19 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void arrayNew(String className, Object value) {
+        record(value, ARRAY_NEW, className, Array.getLength(value));
+    }
+
+    /**
+     * Interpret {@link #arrayNew}.
+     */
+    private void interpretArrayNew(String className, Object value) {
         // remove previous array size constant
         stack.pollLast();
 
         Operand operand = new NewArray(className, value);
         stack.add(operand);
-        operands.add(operand);
+        use(operand);
     }
 
     /**
@@ -115,6 +231,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void arrayStore() {
+        record(null, ARRAY_STORE);
+    }
+
+    /**
+     * Interpret {@link #arrayStore}.
+     */
+    private void interpretArrayStore() {
         // remove previous two operand
         Operand value = stack.pollLast(); // value
         Operand index = stack.pollLast(); // index
@@ -128,6 +251,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void constant(Object constant) {
+        record(constant, CONSTANT, constant);
+    }
+
+    /**
+     * Interpret {@link #constant}.
+     */
+    private void interpretConstant(Object constant) {
         stack.add(new Constant(constant));
     }
 
@@ -136,6 +266,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void condition(String contionalExpression) {
+        record(null, CONDITION, contionalExpression);
+    }
+
+    /**
+     * Interpret {@link #condition}.
+     */
+    private void interpretCondition(String contionalExpression) {
         Condition condition = new Condition(contionalExpression, null);
         stack.add(condition);
     }
@@ -145,6 +282,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void constructor(String name, String description, Object value) {
+        record(value, CONSTRUCTOR, name, description);
+    }
+
+    /**
+     * Interpret {@link #constructor}.
+     */
+    private void interpretConstructor(String name, String description, Object value) {
         // build method invocation
         StringBuilder invocation = new StringBuilder("()");
         Type[] params = Type.getMethodType(description).getArgumentTypes();
@@ -168,20 +312,27 @@ public class PowerAssertContext implements Journal {
 
         Operand operand = new Operand(invocation.toString(), value);
         stack.add(operand);
-        operands.add(operand);
+        use(operand);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void field(String expression, String description, Object variable, int methodId) {
+    public void field(String expression, String description, Object variable) {
+        record(variable, FIELD, expression, description);
+    }
+
+    /**
+     * Interpret {@link #field}.
+     */
+    private void interpretField(String expression, String description, Object variable) {
         Operand owner = stack.pollLast();
         boolean qualified = !owner.name.equals("this") || hasLocal(methodId, expression);
 
         Operand operand = new Variable(qualified ? owner + "." + expression : expression, Type.getType(description), variable);
         stack.add(operand);
-        operands.add(operand);
+        use(operand);
     }
 
     /**
@@ -189,20 +340,35 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void fieldStatic(String className, String fieldName, String description, Object variable) {
+        record(variable, FIELD_STATIC, className, fieldName, description);
+    }
+
+    /**
+     * Interpret {@link #fieldStatic}.
+     */
+    private void interpretFieldStatic(String className, String fieldName, String description, Object variable) {
         Operand operand = new Variable(fieldName, Type.getType(description), variable);
         stack.add(operand);
-        operands.add(operand);
+        use(operand);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void increment(int methodId, int index, int increment) {
-        String[] local = locals.get(methodId).get(index).get();
+    public void increment(int index, int increment) {
+        record(null, INCREMENT, index, increment);
+    }
+
+    /**
+     * Interpret {@link #increment}.
+     */
+    private void interpretIncrement(int index, int increment) {
+        String[] local = getLocalVariable(methodId, index);
+        String name = local == null ? "var" + index : local[0];
         Operand latest = stack.peekLast();
 
-        if (latest == null || !latest.toString().equals(local[0])) {
+        if (latest == null || !latest.toString().equals(name)) {
             // pre increment
             switch (increment) {
             case 1:
@@ -232,6 +398,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void instanceOf(String className) {
+        record(null, INSTANCE_OF, className);
+    }
+
+    /**
+     * Interpret {@link #instanceOf}.
+     */
+    private void interpretInstanceOf(String className) {
         stack.add(new Operand(stack.pollLast() + " instanceof " + className, null));
     }
 
@@ -239,18 +412,24 @@ public class PowerAssertContext implements Journal {
      * {@inheritDoc}
      */
     @Override
-    public void local(int methodId, int index, Object variable) {
+    public void local(int index, Object variable) {
+        record(variable, LOCAL, index);
+    }
+
+    /**
+     * Interpret {@link #local}.
+     */
+    private void interpretLocal(int index, Object variable) {
         Operand operand;
-        List<Supplier<String[]>> variables = locals.get(methodId);
+        String[] local = getLocalVariable(methodId, index);
 
-        if (variables == null) {
+        if (local == null) {
             operand = new Operand("var" + index, variable);
             stack.add(new Variable("var" + index, null, operand.value));
-            operands.add(operand);
+            use(operand);
             return;
         }
 
-        String[] local = variables.get(index).get();
         String name = local[0];
 
         if (nextIncrement != null) {
@@ -275,7 +454,7 @@ public class PowerAssertContext implements Journal {
         }
 
         stack.add(new Variable(name, type, operand.value));
-        operands.add(operand);
+        use(operand);
     }
 
     /**
@@ -283,11 +462,18 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void method(String name, String description, Object value) {
+        record(value, METHOD, name, description);
+    }
+
+    /**
+     * Interpret {@link #method}.
+     */
+    private void interpretMethod(String name, String description, Object value) {
         // build method invocation
         Invocation method = new Invocation(name, description, value);
 
         stack.add(method);
-        operands.add(method);
+        use(method);
     }
 
     /**
@@ -295,11 +481,18 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void methodStatic(String className, String methodName, String description, Object value) {
+        record(value, METHOD_STATIC, className, methodName, description);
+    }
+
+    /**
+     * Interpret {@link #methodStatic}.
+     */
+    private void interpretMethodStatic(String className, String methodName, String description, Object value) {
         // build method invocation
         Invocation method = new Invocation(new Operand(className, null), methodName, description, value);
 
         stack.add(method);
-        operands.add(method);
+        use(method);
     }
 
     /**
@@ -307,6 +500,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void negative() {
+        record(null, NEGATIVE);
+    }
+
+    /**
+     * Interpret {@link #negative}.
+     */
+    private void interpretNegative() {
         stack.add(new Operand("-" + stack.pollLast(), null));
     }
 
@@ -315,6 +515,13 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void operator(String operator) {
+        record(null, OPERATOR, operator);
+    }
+
+    /**
+     * Interpret {@link #operator}.
+     */
+    private void interpretOperator(String operator) {
         if (1 < stack.size()) {
             Operand right = stack.pollLast();
             Operand left = stack.pollLast();
@@ -337,13 +544,20 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void lambda(String name, String description, int referenceSize) {
+        record(null, LAMBDA, name, description, referenceSize);
+    }
+
+    /**
+     * Interpret {@link #lambda}.
+     */
+    private void interpretLambda(String name, String description, int referenceSize) {
         for (int i = 0; i < referenceSize; i++) {
             stack.pollLast();
         }
 
         Lambda lambda = new Lambda(name, null, description, referenceSize);
         stack.add(lambda);
-        operands.add(lambda);
+        use(lambda);
     }
 
     /**
@@ -351,28 +565,192 @@ public class PowerAssertContext implements Journal {
      */
     @Override
     public void methodReference(String className, String methodName, int referenceSize) {
+        record(null, METHOD_REFERENCE, className, methodName, referenceSize);
+    }
+
+    /**
+     * Interpret {@link #methodReference}.
+     */
+    private void interpretMethodReference(String className, String methodName, int referenceSize) {
         if (referenceSize == -1) {
             stack.add(new ClassReference(className));
         }
         MethodReference ref = new MethodReference(methodName, stack.pollLast());
         stack.add(ref);
-        operands.add(ref);
+        use(ref);
     }
 
     /**
-     * {@inheritDoc}
+     * Record the journal call.
+     * 
+     * @param value The captured value.
+     * @param call The kind and the static arguments of journal call.
      */
-    @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder("assert ");
+    private void record(Object value, Object... call) {
+        calls.add(call);
+        values.add(value);
+    }
 
-        // top level operand must be conditional operand because of assert statement
-        Operand top = stack.peekLast();
+    /**
+     * Register the operand to display.
+     * 
+     * @param operand
+     */
+    private void use(Operand operand) {
+        operands.add(operand);
+        sources.add(current);
+    }
+
+    /**
+     * Get the operand stack frame.
+     * 
+     * @return The operand stack.
+     */
+    ArrayDeque<Operand> stack() {
+        build();
+        return stack;
+    }
+
+    /**
+     * Get the using operand list.
+     * 
+     * @return The operand list.
+     */
+    List<Operand> operands() {
+        build();
+        return operands;
+    }
+
+    /**
+     * Build the operand stack from the recorded journal calls. When the same assertion site has
+     * failed by the same call sequence before, its template is filled by the current values.
+     * Templates are kept for at most {@link #MAX_SITES} sites and {@link #MAX_TEMPLATES} call
+     * sequences per site.
+     */
+    private synchronized void build() {
+        if (stack != null) {
+            return;
+        }
+
+        Template[] candidates = site == null ? null : templates.get(site);
+
+        if (candidates != null) {
+            for (Template template : candidates) {
+                if (template.match(this)) {
+                    template.fill(this);
+                    return;
+                }
+            }
+        }
+
+        interpret();
+
+        // The template saves only the re-interpretation of the repeated failure at the same site,
+        // so the sites are bounded (approximately under the race) and the overflowed site is
+        // always interpreted.
+        if (site != null && (candidates != null || templates.size() < MAX_SITES)) {
+            Template template = new Template(this);
+
+            templates.compute(site, (key, list) -> {
+                if (list == null) {
+                    return new Template[] {template};
+                } else if (list.length < MAX_TEMPLATES) {
+                    Template[] extended = Arrays.copyOf(list, list.length + 1);
+                    extended[list.length] = template;
+                    return extended;
+                } else {
+                    return list;
+                }
+            });
+        }
+    }
+
+    /**
+     * Interpret all recorded journal calls.
+     */
+    private void interpret() {
+        stack = new ArrayDeque();
+        operands = new ArrayList();
+        sources = new ArrayList();
+
+        for (current = 0; current < calls.size(); current++) {
+            Object[] call = calls.get(current);
+            Object value = values.get(current);
+
+            switch ((int) call[0]) {
+            case ARRAY_INDEX:
+                interpretArrayIndex(value);
+                break;
+
+            case ARRAY_NEW:
+                interpretArrayNew((String) call[1], value);
+                break;
+
+            case ARRAY_STORE:
+                interpretArrayStore();
+                break;
+
+            case CONSTANT:
+                interpretConstant(value);
+                break;
+
+            case CONDITION:
+                interpretCondition((String) call[1]);
+                break;
 
-        // write assertion code
-        builder.append(top).append("\n");
+            case CONSTRUCTOR:
+                interpretConstructor((String) call[1], (String) call[2], value);
+                break;
+
+            case FIELD:
+                interpretField((String) call[1], (String) call[2], value);
+                break;
+
+            case FIELD_STATIC:
+                interpretFieldStatic((String) call[1], (String) call[2], (String) call[3], value);
+                break;
+
+            case INCREMENT:
+                interpretIncrement((int) call[1], (int) call[2]);
+                break;
+
+            case INSTANCE_OF:
+                interpretInstanceOf((String) call[1]);
+                break;
+
+            case LOCAL:
+                interpretLocal((int) call[1], value);
+                break;
+
+            case METHOD:
+                interpretMethod((String) call[1], (String) call[2], value);
+                break;
+
+            case METHOD_STATIC:
+                interpretMethodStatic((String) call[1], (String) call[2], (String) call[3], value);
+                break;
+
+            case NEGATIVE:
+                interpretNegative();
+                break;
+
+            case OPERATOR:
+                interpretOperator((String) call[1]);
+                break;
+
+            case LAMBDA:
+                interpretLambda((String) call[1], (String) call[2], (int) call[3]);
+                break;
+
+            case METHOD_REFERENCE:
+                interpretMethodReference((String) call[1], (String) call[2], (int) call[3]);
+                break;
+            }
+        }
 
         // strip result operand if the top operand is boolean condition clearly
+        top = stack.peekLast();
+
         if (top instanceof Condition) {
             Condition condition = (Condition) top;
 
@@ -380,6 +758,83 @@ public class PowerAssertContext implements Journal {
                 top = condition.left;
             }
         }
+        compared = compare(stack.peekLast());
+    }
+
+    /**
+     * Find the compared pair of the specified condition.
+     * 
+     * @param operand A condition.
+     * @return The operand indices of the compared pair or null.
+     */
+    private int[] compare(Operand operand) {
+        Operand left = null;
+        Operand right = null;
+
+        if (operand instanceof Condition) {
+            Condition condition = (Condition) operand;
+
+            if (condition.right.value instanceof Integer && condition.left.value instanceof Boolean) {
+                return compare(condition.left);
+            } else if (condition.left.value instanceof Integer && condition.right.value instanceof Boolean) {
+                return compare(condition.right);
+            }
+            left = condition.left;
+            right = condition.right;
+        } else if (operand instanceof Invocation) {
+            Invocation invocation = (Invocation) operand;
+
+            if (invocation.methodName.equals("equals")) {
+                if (invocation.parameters.size() == 1) {
+                    left = invocation.invoker;
+                    right = invocation.parameters.get(0);
+                } else if (invocation.parameters.size() == 2) {
+                    left = invocation.parameters.get(0);
+                    right = invocation.parameters.get(1);
+                }
+            }
+        }
+
+        if (left == null || right == null || left.value == null || right.value == null) {
+            return null;
+        }
+
+        int leftIndex = indexOf(left);
+        int rightIndex = indexOf(right);
+
+        return leftIndex == -1 || rightIndex == -1 ? null : new int[] {leftIndex, rightIndex};
+    }
+
+    /**
+     * Find the using operand which represents the specified operand.
+     * 
+     * @param operand An operand in stack.
+     * @return The index of using operand or -1.
+     */
+    private int indexOf(Operand operand) {
+        String expression = operand.toString();
+
+        for (int i = 0; i < operands.size(); i++) {
+            Operand using = operands.get(i);
+
+            if (using.value == operand.value && using.toString().equals(expression)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        build();
+
+        StringBuilder builder = new StringBuilder("assert ");
+
+        // top level operand must be conditional operand because of assert statement
+        builder.append(stack.peekLast()).append("\n");
 
         // collect all variable operands
         List<Operand> variables = new ArrayList();
@@ -402,6 +857,7 @@ public class PowerAssertContext implements Journal {
                     render(builder, iterator.next());
                 }
             }
+            diff(builder, variables);
             builder.append("└─────────────────────────────────────────\n");
         }
         return builder.toString();
@@ -435,12 +891,73 @@ public class PowerAssertContext implements Journal {
         if (value == null) {
             builder.append("│　　").append("null").append("\n");
         } else {
-            for (String line : PowerAssertRenderer.format(value).split("\r\n|\r|\n")) {
-                builder.append("│　　").append(line).append("\n");
+            builder.append("│　　");
+            PowerAssertRenderer.format(value, new Indent(builder));
+            builder.append("\n");
+        }
+    }
+
+    /**
+     * Render the structural difference of the compared pair. If there is no such pair, render the
+     * difference of the first pair of large arrays or strings which differ. The large value is
+     * compared only with the first large value of the same kind, so the scan is linear.
+     * 
+     * @param builder
+     * @param variables
+     */
+    private void diff(StringBuilder builder, List<Operand> variables) {
+        if (compared != null) {
+            if (diff(builder, operands.get(compared[0]), operands.get(compared[1]))) {
+                return;
+            }
+        }
+
+        Map<Class, Operand> firsts = new HashMap();
+
+        for (Operand operand : variables) {
+            if (PowerAssertRenderer.isElided(operand.value)) {
+                Operand first = firsts.putIfAbsent(operand.value instanceof CharSequence ? CharSequence.class
+                        : operand.value.getClass(), operand);
+
+                if (first != null && diff(builder, first, operand)) {
+                    return;
+                }
             }
         }
     }
 
+    /**
+     * Render the difference section of the specified pair if they differ structurally.
+     * 
+     * @param builder
+     * @param left
+     * @param right
+     * @return <code>true</code> if the difference is rendered.
+     */
+    private boolean diff(StringBuilder builder, Operand left, Operand right) {
+        StringBuilder diff = new StringBuilder();
+
+        if (PowerAssertDiff.diff(left.value, right.value, new Indent(diff))) {
+            diff(builder, left, right, diff);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Render the difference section.
+     * 
+     * @param builder
+     * @param left
+     * @param right
+     * @param diff
+     */
+    private void diff(StringBuilder builder, Operand left, Operand right, StringBuilder diff) {
+        builder.append("├─────────────────────────────────────────\n");
+        builder.append("│").append(left).append("  ⇔  ").append(right).append("\n");
+        builder.append("│　　").append(diff).append("\n");
+    }
+
     /**
      * <p>
      * Helper method to chech whether the specified method declare the spcified local variable or
@@ -452,12 +969,9 @@ public class PowerAssertContext implements Journal {
      * @return
      */
     private static boolean hasLocal(int methodId, String name) {
-        for (Supplier<String[]> local : locals.get(methodId)) {
-            if (local.get()[0].equals(name)) {
-                return true;
-            }
-        }
-        return false;
+        LocalVariables variables = find(methodId);
+
+        return variables != null && variables.resolve().names.contains(name);
     }
 
     /**
@@ -924,4 +1438,424 @@ public class PowerAssertContext implements Journal {
             super(className, className, Type.getType(Class.class));
         }
     }
+
+    /**
+     * The local variable table of the method. The declared variables are published once by the
+     * translation and never modified, the variables captured by lambda are linked to the enclosing
+     * method's table. The lookup is lock-free, the resolution of links is memoized until the next
+     * publication.
+     */
+    private static class LocalVariables {
+
+        /** The declared variables by index. */
+        private volatile String[][] declared = new String[0][];
+
+        /** The links to the enclosing method's variables. */
+        private volatile Link[] links = new Link[0];
+
+        /** The memoized resolution. */
+        private volatile Resolution resolution;
+
+        /**
+         * Publish the declared variables.
+         * 
+         * @param variables
+         */
+        private synchronized void publish(String[][] variables) {
+            declared = variables;
+            resolution = null;
+        }
+
+        /**
+         * Link the captured variable.
+         * 
+         * @param index
+         * @param enclosingId
+         * @param enclosingIndex
+         */
+        private synchronized void link(int index, int enclosingId, int enclosingIndex) {
+            Link[] current = links;
+
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].index == index) {
+                    current = current.clone();
+                    current[i] = new Link(index, enclosingId, enclosingIndex);
+                    links = current;
+                    resolution = null;
+                    return;
+                }
+            }
+
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new Link(index, enclosingId, enclosingIndex);
+            links = current;
+            resolution = null;
+        }
+
+        /**
+         * Get the local variable.
+         * 
+         * @param index
+         * @return The pair of name and description or null.
+         */
+        private String[] get(int index) {
+            String[][] variables = resolve().variables;
+
+            return 0 <= index && index < variables.length ? variables[index] : null;
+        }
+
+        /**
+         * Resolve all links.
+         * 
+         * @return The memoized resolution.
+         */
+        private Resolution resolve() {
+            Resolution resolved = resolution;
+
+            if (resolved == null) {
+                String[][] variables = declared;
+                Link[] links = this.links;
+
+                for (Link link : links) {
+                    if (variables.length <= link.index) {
+                        variables = Arrays.copyOf(variables, link.index + 1);
+                    }
+                }
+
+                if (variables == declared) {
+                    variables = variables.clone();
+                }
+
+                for (Link link : links) {
+                    if (variables[link.index] == null) {
+                        variables[link.index] = getLocalVariable(link.enclosingId, link.enclosingIndex);
+                    }
+                }
+
+                Set<String> names = new HashSet();
+                for (String[] variable : variables) {
+                    if (variable != null) {
+                        names.add(variable[0]);
+                    }
+                }
+
+                // benign race, the same resolution is computed
+                resolution = resolved = new Resolution(variables, names);
+            }
+            return resolved;
+        }
+    }
+
+    /**
+     * The link to the enclosing method's variable.
+     */
+    private static class Link {
+
+        /** The local variable index. */
+        private final int index;
+
+        /** The enclosing method identifier. */
+        private final int enclosingId;
+
+        /** The local variable index in enclosing method. */
+        private final int enclosingIndex;
+
+        /**
+         * @param index
+         * @param enclosingId
+         * @param enclosingIndex
+         */
+        private Link(int index, int enclosingId, int enclosingIndex) {
+            this.index = index;
+            this.enclosingId = enclosingId;
+            this.enclosingIndex = enclosingIndex;
+        }
+    }
+
+    /**
+     * The resolved local variables.
+     */
+    private static class Resolution {
+
+        /** The variables by index. */
+        private final String[][] variables;
+
+        /** The variable names. */
+        private final Set<String> names;
+
+        /**
+         * @param variables
+         * @param names
+         */
+        private Resolution(String[][] variables, Set<String> names) {
+            this.variables = variables;
+            this.names = names;
+        }
+    }
+
+    /**
+     * The immutable expression template of the assertion site. It holds the rendered expression
+     * and the operands with the positions of their values in the journal calls, so the failure by
+     * the same call sequence only fills the current values in.
+     */
+    private static class Template {
+
+        /** The kinds and static arguments of journal calls. */
+        private final Object[][] calls;
+
+        /** The value types of journal calls. */
+        private final Class[] types;
+
+        /** The rendered operand stack. */
+        private final String[] stack;
+
+        /** The value-free operand prototypes. */
+        private final Prototype[] operands;
+
+        /** The journal call index of each operand value. */
+        private final int[] sources;
+
+        /** The index of top level operand or -1. */
+        private final int top;
+
+        /** The operand indices of the compared pair or null. */
+        private final int[] compared;
+
+        /**
+         * Build template from the interpreted context.
+         * 
+         * @param context
+         */
+        private Template(PowerAssertContext context) {
+            int size = context.calls.size();
+            this.calls = context.calls.toArray(new Object[size][]);
+            this.types = new Class[size];
+
+            for (int i = 0; i < size; i++) {
+                types[i] = type(context.values.get(i));
+            }
+
+            this.stack = new String[context.stack.size()];
+
+            int index = 0;
+            for (Operand operand : context.stack) {
+                stack[index++] = operand.toString();
+            }
+
+            this.operands = new Prototype[context.operands.size()];
+            this.sources = new int[operands.length];
+
+            int top = -1;
+            for (int i = 0; i < operands.length; i++) {
+                Operand operand = context.operands.get(i);
+                operands[i] = new Prototype(operand);
+                sources[i] = context.sources.get(i);
+
+                if (operand == context.top) {
+                    top = i;
+                }
+            }
+            this.top = top;
+            this.compared = context.compared;
+        }
+
+        /**
+         * Check whether the specified context is recorded by the same journal call sequence.
+         * 
+         * @param context
+         * @return A result.
+         */
+        private boolean match(PowerAssertContext context) {
+            if (context.calls.size() != calls.length) {
+                return false;
+            }
+
+            for (int i = 0; i < calls.length; i++) {
+                // the value type may change the expression (e.g. int or boolean)
+                if (types[i] != type(context.values.get(i)) || !Arrays.equals(calls[i], context.calls.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Fill the current values into the specified context.
+         * 
+         * @param context
+         */
+        private void fill(PowerAssertContext context) {
+            context.stack = new ArrayDeque(stack.length);
+            for (String code : stack) {
+                context.stack.add(new Operand(code, null));
+            }
+
+            context.operands = new ArrayList(operands.length);
+            for (int i = 0; i < operands.length; i++) {
+                context.operands.add(fill(operands[i], context.values.get(sources[i])));
+            }
+            context.top = top == -1 ? null : context.operands.get(top);
+            context.compared = compared;
+        }
+
+        /**
+         * Create the operand which has the same expression and type as the prototype.
+         * 
+         * @param prototype An operand prototype.
+         * @param value The current raw value.
+         * @return The filled operand.
+         */
+        private static Operand fill(Prototype prototype, Object value) {
+            // restore the local variable value which is recorded as int
+            if (value instanceof Integer) {
+                if (prototype.restore == Boolean.class) {
+                    value = (int) value == 1;
+                } else if (prototype.restore == Character.class) {
+                    value = (char) ((Integer) value).intValue();
+                }
+            }
+
+            if (!prototype.holder) {
+                return new Hidden(prototype.name, value);
+            } else if (prototype.variable) {
+                return new Variable(prototype.name, prototype.type, value);
+            } else {
+                return new Operand(prototype.name, value, prototype.inference);
+            }
+        }
+
+        /**
+         * Helper to get the value type.
+         * 
+         * @param value
+         * @return
+         */
+        private static Class type(Object value) {
+            return value == null ? null : value.getClass();
+        }
+    }
+
+    /**
+     * The value-free operand prototype of template. The template lives as long as JVM, so it must
+     * not hold the actual values.
+     */
+    private static class Prototype {
+
+        /** The rendered expression. */
+        private final String name;
+
+        /** The state whether the operand has a value to display. */
+        private final boolean holder;
+
+        /** The state whether the operand is variable (or invocation). */
+        private final boolean variable;
+
+        /** The variable type. */
+        private final Type type;
+
+        /** The type inference. */
+        private final Type inference;
+
+        /** The value type to restore from int (boolean or char) or null. */
+        private final Class restore;
+
+        /**
+         * @param operand
+         */
+        private Prototype(Operand operand) {
+            this.name = operand.toString();
+            this.holder = operand.isVariableHolder();
+            this.variable = operand instanceof Variable || operand instanceof Invocation;
+            this.type = variable ? operand.getType() : null;
+            this.inference = operand.inference;
+            this.restore = operand.value instanceof Boolean ? Boolean.class : operand.value instanceof Character ? Character.class : null;
+        }
+    }
+
+    /**
+     * The filled operand which has no value to display (e.g. constant or lambda).
+     */
+    private static class Hidden extends Operand {
+
+        /**
+         * @param name
+         * @param value
+         */
+        private Hidden(String name, Object value) {
+            super(name, value);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        boolean isVariableHolder() {
+            return false;
+        }
+    }
+
+    /**
+     * Write the multiline text with the indent of variable box. The trailing line separators are
+     * dropped.
+     */
+    private static class Indent implements Appendable {
+
+        /** The destination. */
+        private final StringBuilder builder;
+
+        /** The number of pending line separators. */
+        private int lines;
+
+        /** The state. */
+        private boolean carriageReturn;
+
+        /**
+         * @param builder
+         */
+        private Indent(StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Appendable append(CharSequence text) {
+            return append(text, 0, text.length());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Appendable append(CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Appendable append(char c) {
+            if (c == '\r') {
+                lines++;
+                carriageReturn = true;
+            } else if (c == '\n') {
+                if (!carriageReturn) {
+                    lines++;
+                }
+                carriageReturn = false;
+            } else {
+                for (; 0 < lines; lines--) {
+                    builder.append("\n│　　");
+                }
+                builder.append(c);
+                carriageReturn = false;
+            }
+            return this;
+        }
+    }
 }
\ No newline at end of file
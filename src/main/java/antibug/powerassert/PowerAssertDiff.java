@@ -0,0 +1,650 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Structural difference of two values for {@link PowerAssertionError}. Strings (by line, or by
+ * character for single line) and lists are compared by Myers' algorithm in linear space, maps and
+ * sets are compared by key, arrays are compared by index.
+ * <p>
+ * The computation is limited by the time (system property "antibug.powerassert.diff", default is
+ * 500 milliseconds). When the limit is exceeded, the remaining region is reported as replaced.
+ * </p>
+ */
+class PowerAssertDiff {
+
+    /** The edit type. */
+    private static final int EQUAL = 0, DELETE = 1, INSERT = 2;
+
+    /** The time limit in nano seconds. */
+    private static final long TIME_LIMIT = Long.getLong("antibug.powerassert.diff", 500) * 1000000;
+
+    /** The number of unchanged lines around the change. */
+    private static final int CONTEXT = 2;
+
+    /** The number of unchanged characters around the change. */
+    private static final int CONTEXT_CHARACTERS = 20;
+
+    /** The maximum number of reported changes. */
+    private static final int MAX_CHANGES = 50;
+
+    /** The maximum number of rendered characters per change. */
+    private static final int MAX_CHANGE_CHARACTERS = 200;
+
+    /** The number of element comparisons between deadline checks. */
+    private static final int CHECK_INTERVAL = 4096;
+
+    /** The destination. */
+    private final Appendable output;
+
+    /** The deadline of computation. */
+    private final long deadline;
+
+    /** The state. */
+    private boolean timeout;
+
+    /** The number of reported changes. */
+    private int changes;
+
+    /** The number of element comparisons. */
+    private int comparisons;
+
+    /**
+     * @param output
+     */
+    private PowerAssertDiff(Appendable output) {
+        this.output = output;
+        this.deadline = System.nanoTime() + TIME_LIMIT;
+    }
+
+    /**
+     * Write the difference of the specified values.
+     * 
+     * @param left A left value.
+     * @param right A right value.
+     * @param output A destination.
+     * @return <code>false</code> if the values are not comparable or they are equal. The user
+     *         defined collection (e.g. {@link java.util.TreeMap} with the incompatible keys) may
+     *         throw in comparison, it also means no difference. The output may be written partially
+     *         in that case, so the caller must discard it.
+     */
+    static boolean diff(Object left, Object right, Appendable output) {
+        if (left == null || right == null || left == right) {
+            return false;
+        }
+
+        PowerAssertDiff diff = new PowerAssertDiff(output);
+
+        try {
+            if (left instanceof CharSequence && right instanceof CharSequence) {
+                return diff.text(left.toString(), right.toString());
+            } else if (left instanceof List && right instanceof List) {
+                return diff.sequence(((List) left).toArray(), ((List) right).toArray(), false);
+            } else if (left instanceof Map && right instanceof Map) {
+                return diff.map((Map) left, (Map) right);
+            } else if (left instanceof Set && right instanceof Set) {
+                return diff.set((Set) left, (Set) right);
+            } else if (left.getClass().isArray() && left.getClass() == right.getClass()) {
+                return diff.array(left, right);
+            } else {
+                return false;
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Compare texts.
+     */
+    private boolean text(String left, String right) {
+        if (left.equals(right)) {
+            return false;
+        }
+
+        if (left.indexOf('\n') == -1 && left.indexOf('\r') == -1 && right.indexOf('\n') == -1 && right.indexOf('\r') == -1) {
+            return characters(left, right);
+        } else {
+            return sequence(left.split("\r\n|\r|\n", -1), right.split("\r\n|\r|\n", -1), true);
+        }
+    }
+
+    /**
+     * Compare single line texts by character.
+     */
+    private boolean characters(String left, String right) {
+        List<int[]> edits = new ArrayList();
+        myers((i, j) -> left.charAt(i) == right.charAt(j), 0, left.length(), 0, right.length(), edits);
+
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < edits.size(); i++) {
+            int[] edit = edits.get(i);
+
+            switch (edit[0]) {
+            case EQUAL:
+                int start = edit[1];
+                int end = edit[2];
+
+                if (i != 0 && i + 1 != edits.size() && end - start <= CONTEXT_CHARACTERS * 2) {
+                    builder.append(left, start, end);
+                } else {
+                    if (i != 0) {
+                        builder.append(left, start, Math.min(end, start + CONTEXT_CHARACTERS));
+                        start = Math.min(end, start + CONTEXT_CHARACTERS);
+                    }
+
+                    if (i + 1 != edits.size()) {
+                        if (start < end - CONTEXT_CHARACTERS) {
+                            builder.append("…");
+                        }
+                        builder.append(left, Math.max(start, end - CONTEXT_CHARACTERS), end);
+                    } else if (start < end) {
+                        builder.append("…");
+                    }
+                }
+                break;
+
+            case DELETE:
+            case INSERT:
+                if (MAX_CHANGES <= changes++) {
+                    int remaining = 0;
+
+                    for (int k = i; k < edits.size(); k++) {
+                        if (edits.get(k)[0] != EQUAL) {
+                            remaining++;
+                        }
+                    }
+                    builder.append("\n… ").append(number(remaining)).append(" more changes");
+                    i = edits.size();
+                    break;
+                }
+
+                boolean deleted = edit[0] == DELETE;
+                builder.append(deleted ? "[-" : "{+");
+                change(builder, deleted ? left : right, deleted ? edit[1] : edit[3], deleted ? edit[2] : edit[4]);
+                builder.append(deleted ? "-]" : "+}");
+                break;
+            }
+        }
+        write("diff by character ([-deleted-] {+inserted+})\n");
+        write(builder);
+
+        if (timeout) {
+            write("\n(diff is approximated because of time limit)");
+        }
+        return true;
+    }
+
+    /**
+     * Write the changed characters within the rendering limit.
+     */
+    private static void change(StringBuilder builder, String text, int start, int end) {
+        if (end - start <= MAX_CHANGE_CHARACTERS) {
+            builder.append(text, start, end);
+        } else {
+            builder.append(text, start, start + MAX_CHANGE_CHARACTERS).append("…(").append(number(end - start - MAX_CHANGE_CHARACTERS)).append(" more)");
+        }
+    }
+
+    /**
+     * Compare lines or list elements.
+     */
+    private boolean sequence(Object[] left, Object[] right, boolean lines) {
+        List<int[]> edits = new ArrayList();
+        myers((i, j) -> Objects.equals(left[i], right[j]), 0, left.length, 0, right.length, edits);
+
+        if (edits.size() == 1 && edits.get(0)[0] == EQUAL) {
+            return false;
+        }
+
+        write(lines ? "diff by line" : "diff by element");
+        write(" (size " + number(left.length) + " → " + number(right.length) + ")");
+
+        render: for (int i = 0; i < edits.size(); i++) {
+            int[] edit = edits.get(i);
+
+            switch (edit[0]) {
+            case EQUAL:
+                int start = edit[1];
+                int end = edit[2];
+                int head = i == 0 ? start : Math.min(end, start + CONTEXT);
+                int tail = i + 1 == edits.size() ? end : Math.max(head, end - CONTEXT);
+
+                for (int j = start; j < head; j++) {
+                    line(' ', j, left[j]);
+                }
+
+                if (head < tail) {
+                    write("\n  … " + number(tail - head) + " same");
+                }
+
+                for (int j = tail; j < end; j++) {
+                    line(' ', j, left[j]);
+                }
+                break;
+
+            case DELETE:
+            case INSERT:
+                boolean deleted = edit[0] == DELETE;
+                int from = deleted ? edit[1] : edit[3];
+                int to = deleted ? edit[2] : edit[4];
+
+                for (int j = from; j < to; j++) {
+                    if (MAX_CHANGES <= changes++) {
+                        int remaining = to - j;
+
+                        for (int k = i + 1; k < edits.size(); k++) {
+                            int[] next = edits.get(k);
+
+                            if (next[0] == DELETE) {
+                                remaining += next[2] - next[1];
+                            } else if (next[0] == INSERT) {
+                                remaining += next[4] - next[3];
+                            }
+                        }
+                        write("\n… " + number(remaining) + " more changes");
+                        break render;
+                    }
+                    line(deleted ? '-' : '+', j, deleted ? left[j] : right[j]);
+                }
+                break;
+            }
+        }
+
+        if (timeout) {
+            write("\n(diff is approximated because of time limit)");
+        }
+        return true;
+    }
+
+    /**
+     * Write the sequence element.
+     */
+    private void line(char type, int index, Object value) {
+        write("\n" + type + " [" + index + "] " + (value instanceof String ? value : format(value)));
+    }
+
+    /**
+     * Compare maps by key.
+     */
+    private boolean map(Map<?, ?> left, Map<?, ?> right) {
+        List<String> lines = new ArrayList();
+
+        for (Entry<?, ?> entry : left.entrySet()) {
+            if (!right.containsKey(entry.getKey())) {
+                lines.add("- " + format(entry.getKey()) + " = " + format(entry.getValue()));
+            } else {
+                Object value = right.get(entry.getKey());
+
+                if (!Objects.equals(entry.getValue(), value)) {
+                    lines.add("~ " + format(entry.getKey()) + " = " + format(entry.getValue()) + " → " + format(value));
+                }
+            }
+
+            if (MAX_CHANGES < lines.size()) {
+                break;
+            }
+        }
+
+        for (Entry<?, ?> entry : right.entrySet()) {
+            if (MAX_CHANGES < lines.size()) {
+                break;
+            }
+
+            if (!left.containsKey(entry.getKey())) {
+                lines.add("+ " + format(entry.getKey()) + " = " + format(entry.getValue()));
+            }
+        }
+        return report("diff by key (size " + number(left.size()) + " → " + number(right.size()) + ")", lines);
+    }
+
+    /**
+     * Compare sets by element.
+     */
+    private boolean set(Set<?> left, Set<?> right) {
+        List<String> lines = new ArrayList();
+
+        for (Object item : left) {
+            if (MAX_CHANGES < lines.size()) {
+                break;
+            }
+
+            if (!right.contains(item)) {
+                lines.add("- " + format(item));
+            }
+        }
+
+        for (Object item : right) {
+            if (MAX_CHANGES < lines.size()) {
+                break;
+            }
+
+            if (!left.contains(item)) {
+                lines.add("+ " + format(item));
+            }
+        }
+        return report("diff by element (size " + number(left.size()) + " → " + number(right.size()) + ")", lines);
+    }
+
+    /**
+     * Compare arrays by index.
+     */
+    private boolean array(Object left, Object right) {
+        int leftLength = Array.getLength(left);
+        int rightLength = Array.getLength(right);
+        int size = Math.min(leftLength, rightLength);
+        List<String> lines = new ArrayList();
+
+        for (int index = mismatch(left, right, 0, size); index != -1 && lines.size() <= MAX_CHANGES; index = mismatch(left, right, index + 1, size)) {
+            lines.add("~ [" + index + "] " + format(Array.get(left, index)) + " → " + format(Array.get(right, index)));
+        }
+
+        for (int i = size; i < leftLength && lines.size() <= MAX_CHANGES; i++) {
+            lines.add("- [" + i + "] " + format(Array.get(left, i)));
+        }
+
+        for (int i = size; i < rightLength && lines.size() <= MAX_CHANGES; i++) {
+            lines.add("+ [" + i + "] " + format(Array.get(right, i)));
+        }
+        return report("diff by index (length " + number(leftLength) + " → " + number(rightLength) + ")", lines);
+    }
+
+    /**
+     * Find the next mismatched index of the same type arrays.
+     * 
+     * @return The index or -1 if they are same in the range.
+     */
+    private static int mismatch(Object left, Object right, int from, int to) {
+        if (to <= from) {
+            return -1;
+        }
+
+        int index;
+
+        if (left instanceof int[]) {
+            index = Arrays.mismatch((int[]) left, from, to, (int[]) right, from, to);
+        } else if (left instanceof long[]) {
+            index = Arrays.mismatch((long[]) left, from, to, (long[]) right, from, to);
+        } else if (left instanceof float[]) {
+            index = Arrays.mismatch((float[]) left, from, to, (float[]) right, from, to);
+        } else if (left instanceof double[]) {
+            index = Arrays.mismatch((double[]) left, from, to, (double[]) right, from, to);
+        } else if (left instanceof boolean[]) {
+            index = Arrays.mismatch((boolean[]) left, from, to, (boolean[]) right, from, to);
+        } else if (left instanceof char[]) {
+            index = Arrays.mismatch((char[]) left, from, to, (char[]) right, from, to);
+        } else if (left instanceof byte[]) {
+            index = Arrays.mismatch((byte[]) left, from, to, (byte[]) right, from, to);
+        } else if (left instanceof short[]) {
+            index = Arrays.mismatch((short[]) left, from, to, (short[]) right, from, to);
+        } else {
+            Object[] leftArray = (Object[]) left;
+            Object[] rightArray = (Object[]) right;
+
+            for (int i = from; i < to; i++) {
+                if (!Objects.equals(leftArray[i], rightArray[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        return index == -1 ? -1 : from + index;
+    }
+
+    /**
+     * Write the reported lines.
+     */
+    private boolean report(String title, List<String> lines) {
+        if (lines.isEmpty()) {
+            return false;
+        }
+
+        write(title);
+
+        for (int i = 0; i < lines.size() && i < MAX_CHANGES; i++) {
+            write("\n" + lines.get(i));
+        }
+
+        if (MAX_CHANGES < lines.size()) {
+            write("\n… more changes");
+        }
+        return true;
+    }
+
+    /**
+     * Compute the shortest edit script of the specified range by Myers' algorithm. The middle
+     * snake is found by the bidirectional search, so it requires only linear space.
+     * 
+     * @param equality The element equality.
+     * @param a0 The start index of left sequence (inclusive).
+     * @param a1 The end index of left sequence (exclusive).
+     * @param b0 The start index of right sequence (inclusive).
+     * @param b1 The end index of right sequence (exclusive).
+     * @param edits The edit script {type, leftStart, leftEnd, rightStart, rightEnd}.
+     */
+    private void myers(Equality equality, int a0, int a1, int b0, int b1, List<int[]> edits) {
+        // common prefix
+        int prefix = 0;
+        while (a0 + prefix < a1 && b0 + prefix < b1 && !expired() && equality.test(a0 + prefix, b0 + prefix)) {
+            prefix++;
+        }
+        add(edits, EQUAL, a0, a0 + prefix, b0, b0 + prefix);
+        a0 += prefix;
+        b0 += prefix;
+
+        // common suffix
+        int suffix = 0;
+        while (a0 < a1 - suffix && b0 < b1 - suffix && !expired() && equality.test(a1 - suffix - 1, b1 - suffix - 1)) {
+            suffix++;
+        }
+        a1 -= suffix;
+        b1 -= suffix;
+
+        if (a0 == a1) {
+            add(edits, INSERT, a0, a0, b0, b1);
+        } else if (b0 == b1) {
+            add(edits, DELETE, a0, a1, b0, b0);
+        } else {
+            long split = timeout ? -1 : bisect(equality, a0, a1, b0, b1);
+
+            if (split == -1) {
+                add(edits, DELETE, a0, a1, b0, b0);
+                add(edits, INSERT, a1, a1, b0, b1);
+            } else {
+                int x = (int) (split >>> 32);
+                int y = (int) split;
+
+                myers(equality, a0, x, b0, y, edits);
+                myers(equality, x, a1, y, b1, edits);
+            }
+        }
+        add(edits, EQUAL, a1, a1 + suffix, b1, b1 + suffix);
+    }
+
+    /**
+     * Find the middle snake.
+     * 
+     * @return The split point (left index in upper 32 bits, right index in lower) or -1.
+     */
+    private long bisect(Equality equality, int a0, int a1, int b0, int b1) {
+        int n = a1 - a0;
+        int m = b1 - b0;
+        int max = (n + m + 1) / 2;
+        int offset = max;
+        int length = 2 * max + 2;
+        int[] forward = new int[length];
+        int[] reverse = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(reverse, -1);
+        forward[offset + 1] = 0;
+        reverse[offset + 1] = 0;
+
+        int delta = n - m;
+        boolean front = delta % 2 != 0;
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+
+        for (int d = 0; d < max; d++) {
+            if (deadline < System.nanoTime()) {
+                timeout = true;
+                return -1;
+            }
+
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1]) ? forward[k1Offset + 1]
+                        : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+
+                while (x1 < n && y1 < m && !expired() && equality.test(a0 + x1, b0 + y1)) {
+                    x1++;
+                    y1++;
+                }
+
+                if (timeout) {
+                    return -1;
+                }
+                forward[k1Offset] = x1;
+
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+
+                    if (0 <= k2Offset && k2Offset < length && reverse[k2Offset] != -1 && n - reverse[k2Offset] <= x1) {
+                        return ((long) (a0 + x1) << 32) | (b0 + y1);
+                    }
+                }
+            }
+
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d && reverse[k2Offset - 1] < reverse[k2Offset + 1]) ? reverse[k2Offset + 1]
+                        : reverse[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+
+                while (x2 < n && y2 < m && !expired() && equality.test(a1 - x2 - 1, b1 - y2 - 1)) {
+                    x2++;
+                    y2++;
+                }
+
+                if (timeout) {
+                    return -1;
+                }
+                reverse[k2Offset] = x2;
+
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+
+                    if (0 <= k1Offset && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+
+                        if (n - x2 <= x1) {
+                            return ((long) (a0 + x1) << 32) | (b0 + y1);
+                        }
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check the deadline once per {@link #CHECK_INTERVAL} comparisons.
+     * 
+     * @return <code>true</code> if the time limit is exceeded.
+     */
+    private boolean expired() {
+        if (!timeout && CHECK_INTERVAL <= ++comparisons) {
+            comparisons = 0;
+            timeout = deadline < System.nanoTime();
+        }
+        return timeout;
+    }
+
+    /**
+     * Add the edit and merge it with the previous one if possible.
+     */
+    private static void add(List<int[]> edits, int type, int a0, int a1, int b0, int b1) {
+        if (a0 == a1 && b0 == b1) {
+            return;
+        }
+
+        if (!edits.isEmpty()) {
+            int[] last = edits.get(edits.size() - 1);
+
+            if (last[0] == type && last[2] == a0 && last[4] == b0) {
+                last[2] = a1;
+                last[4] = b1;
+                return;
+            }
+        }
+        edits.add(new int[] {type, a0, a1, b0, b1});
+    }
+
+    /**
+     * Format the value within the rendering limit.
+     */
+    private static String format(Object value) {
+        return PowerAssertRenderer.format(value);
+    }
+
+    /**
+     * Format the number.
+     */
+    private static String number(long value) {
+        return String.format(Locale.ROOT, "%,d", value);
+    }
+
+    /**
+     * Write text.
+     */
+    private void write(CharSequence text) {
+        try {
+            output.append(text);
+        } catch (IOException e) {
+            throw new IOError(e);
+        }
+    }
+
+    /**
+     * The element equality of two sequences.
+     */
+    private interface Equality {
+
+        /**
+         * Test the equality of elements.
+         * 
+         * @param left The index of left sequence.
+         * @param right The index of right sequence.
+         * @return A result.
+         */
+        boolean test(int left, int right);
+    }
+}
\ No newline at end of file
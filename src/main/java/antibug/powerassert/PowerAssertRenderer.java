@@ -9,35 +9,54 @@
  */
 package antibug.powerassert;
 
+import java.io.IOError;
+import java.io.IOException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.platform.commons.util.ReflectionUtils;
 
 /**
+ * Renderer must be stateless because the single instance is shared by all threads and values.
+ * Renderer implements {@link #render(Object)} or the streaming {@link #render(Object, Output)}.
+ * The rendered text of each operand is limited by the number of elements (system property
+ * "antibug.powerassert.elements", default is 100) and characters (system property
+ * "antibug.powerassert.characters", default is 4000), the elided part is shown as "… N more".
+ * 
  * @version 2018/09/28 21:20:09
  */
 public abstract class PowerAssertRenderer<T> {
 
     /** The registered renderers. */
-    private static final Map<Type, Class<? extends PowerAssertRenderer>> renderers = new HashMap();
+    private static final Map<Type, PowerAssertRenderer> renderers = new ConcurrentHashMap();
+
+    /** The fallback renderer. */
+    private static final PowerAssertRenderer OBJECT = new ObjectRnederer();
+
+    /** The resolved renderer for each concrete class. */
+    private static volatile ClassValue<PowerAssertRenderer> resolved = resolver();
+
+    /** The maximum number of elements to render for each operand. */
+    private static volatile int maxElements = Integer.getInteger("antibug.powerassert.elements", 100);
+
+    /** The maximum number of characters to render for each operand. */
+    private static volatile int maxCharacters = Integer.getInteger("antibug.powerassert.characters", 4000);
 
     static {
         register(CharSequenceRenderer.class, CharSequence.class);
         register(EnumRenderer.class, Enum.class);
         register(CharacterRnederer.class, Character.class);
         register(ClassRnederer.class, Class.class);
-        register(IntArrayRnederer.class, Integer[].class, int[].class);
-        register(LongArrayRnederer.class, Long[].class, long[].class);
-        register(FloatArrayRnederer.class, Float[].class, float[].class);
-        register(DoubleArrayRnederer.class, Double[].class, double[].class);
-        register(BooleanArrayRnederer.class, Boolean[].class, boolean[].class);
-        register(CharArrayRnederer.class, Character[].class, char[].class);
-        register(ByteArrayRnederer.class, Byte[].class, byte[].class);
-        register(ShortArrayRnederer.class, Short[].class, short[].class);
-        register(ObjectArrayRnederer.class, Object[].class);
+        register(ArrayRnederer.class, int[].class, long[].class, float[].class, double[].class, boolean[].class, char[].class, byte[].class, short[].class, Object[].class);
+        register(CollectionRnederer.class, Collection.class);
+        register(MapRnederer.class, Map.class);
 
         // Don't register ObjectRenderer because Object type must be evaluated at last.
         // register(ObjectRnederer.class);
@@ -51,9 +70,14 @@ public abstract class PowerAssertRenderer<T> {
      * @param renderer
      */
     public static final void register(Class<? extends PowerAssertRenderer> renderer, Class... types) {
+        PowerAssertRenderer instance = ReflectionUtils.newInstance(renderer);
+
         for (Class type : types) {
-            renderers.put(type, renderer);
+            renderers.put(type, instance);
         }
+
+        // discard all resolved renderers
+        resolved = resolver();
     }
 
     /**
@@ -65,14 +89,91 @@ public abstract class PowerAssertRenderer<T> {
      * @return A formatted message.
      */
     public static final String format(Object object) {
-        for (Class type : ReflectionUtils.getAllAssignmentCompatibleClasses(object.getClass())) {
-            Class<? extends PowerAssertRenderer> renderer = renderers.get(type);
+        StringBuilder builder = new StringBuilder();
+        format(object, builder);
+        return builder.toString();
+    }
 
-            if (renderer != null) {
-                return ReflectionUtils.newInstance(renderer).render(object);
-            }
+    /**
+     * Format the target object into the specified output within the configured limits.
+     * 
+     * @param object A object to format.
+     * @param output A destination.
+     */
+    public static final void format(Object object, Appendable output) {
+        format(object, new Output(output, maxElements, maxCharacters));
+    }
+
+    /**
+     * Format the target object into the specified output.
+     * 
+     * @param object A object to format.
+     * @param output A destination.
+     */
+    private static void format(Object object, Output output) {
+        if (object == null) {
+            output.append("null");
+        } else {
+            resolved.get(object.getClass()).render(object, output);
+        }
+    }
+
+    /**
+     * Configure the rendering limits for each operand.
+     * 
+     * @param elements The maximum number of elements in array, collection and map.
+     * @param characters The maximum number of characters.
+     */
+    public static final void limit(int elements, int characters) {
+        maxElements = Math.max(1, elements);
+        maxCharacters = Math.max(16, characters);
+    }
+
+    /**
+     * Check whether the specified value is too large to be rendered entirely.
+     * 
+     * @param value A value.
+     * @return <code>true</code> if the rendered text elides some characters or elements.
+     */
+    static boolean isElided(Object value) {
+        if (value instanceof CharSequence) {
+            return maxCharacters < ((CharSequence) value).length();
+        } else if (value != null && value.getClass().isArray()) {
+            return maxElements < Array.getLength(value);
+        } else {
+            return false;
         }
-        return ReflectionUtils.newInstance(ObjectRnederer.class).render(object);
+    }
+
+    /**
+     * Create the cache which resolves the renderer by walking the class hierarchy only once for
+     * each concrete class.
+     * 
+     * @return A new cache.
+     */
+    private static ClassValue<PowerAssertRenderer> resolver() {
+        return new ClassValue<>() {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            protected PowerAssertRenderer computeValue(Class<?> clazz) {
+                for (Class type : ReflectionUtils.getAllAssignmentCompatibleClasses(clazz)) {
+                    PowerAssertRenderer renderer = renderers.get(type);
+
+                    if (renderer != null) {
+                        return renderer;
+                    }
+                }
+
+                // reference type array is not assignable to Object[] in the class hierarchy
+                if (clazz.isArray() && !clazz.getComponentType().isPrimitive()) {
+                    return renderers.getOrDefault(Object[].class, OBJECT);
+                }
+                return OBJECT;
+            }
+        };
     }
 
     /**
@@ -83,7 +184,22 @@ public abstract class PowerAssertRenderer<T> {
      * @param value A target.
      * @return A human-readable description.
      */
-    protected abstract String render(T value);
+    protected String render(T value) {
+        StringBuilder builder = new StringBuilder();
+        render(value, new Output(builder, maxElements, maxCharacters));
+        return builder.toString();
+    }
+
+    /**
+     * Render the specified value for human into the size-capped output. Large value should be
+     * streamed and stop as soon as the output is full.
+     * 
+     * @param value A target.
+     * @param output A destination.
+     */
+    protected void render(T value, Output output) {
+        output.append(render(value));
+    }
 
     /**
      * @version 2012/02/15 12:04:49
@@ -94,8 +210,16 @@ public abstract class PowerAssertRenderer<T> {
          * {@inheritDoc}
          */
         @Override
-        protected String render(CharSequence value) {
-            return "\"" + value + "\"";
+        protected void render(CharSequence value, Output output) {
+            // reserve the quotes and the separator of elision marker
+            int length = value.length();
+            int visible = length + 2 <= output.remaining() ? length : Math.max(0, output.remaining() - 3);
+
+            output.append('"').append(value, 0, visible).append('"');
+
+            if (visible < length) {
+                output.append(' ').elide(length - visible);
+            }
         }
     }
 
@@ -142,142 +266,300 @@ public abstract class PowerAssertRenderer<T> {
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * Render any array in the same format as {@link Arrays#deepToString(Object[])}.
      */
-    private static final class IntArrayRnederer extends PowerAssertRenderer<int[]> {
+    private static final class ArrayRnederer extends PowerAssertRenderer<Object> {
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(int[] value) {
-            return Arrays.toString(value);
+        protected void render(Object value, Output output) {
+            int length = Array.getLength(value);
+
+            output.append('[');
+            for (int i = 0; i < length; i++) {
+                if (i != 0) {
+                    output.append(", ");
+                }
+
+                if (output.isFull(i)) {
+                    output.elide(length - i);
+                    break;
+                }
+                element(Array.get(value, i), value, "[...]", output);
+            }
+            output.append(']');
         }
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * Render collection in the same format as {@link java.util.AbstractCollection#toString()}.
      */
-    private static final class LongArrayRnederer extends PowerAssertRenderer<long[]> {
+    private static final class CollectionRnederer extends PowerAssertRenderer<Collection> {
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(long[] value) {
-            return Arrays.toString(value);
+        protected void render(Collection value, Output output) {
+            if (!isStandard(value) && !output.isFull(value.size() - 1)) {
+                output.append(value.toString());
+                return;
+            }
+
+            int size = value.size();
+            int index = 0;
+            Iterator iterator = value.iterator();
+
+            output.append('[');
+            while (iterator.hasNext()) {
+                if (index != 0) {
+                    output.append(", ");
+                }
+
+                if (output.isFull(index)) {
+                    output.elide(size - index);
+                    break;
+                }
+
+                element(iterator.next(), value, "(this Collection)", output);
+                index++;
+            }
+            output.append(']');
         }
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * Render map in the same format as {@link java.util.AbstractMap#toString()}.
      */
-    private static final class FloatArrayRnederer extends PowerAssertRenderer<float[]> {
+    private static final class MapRnederer extends PowerAssertRenderer<Map> {
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(float[] value) {
-            return Arrays.toString(value);
+        protected void render(Map value, Output output) {
+            if (!isStandard(value) && !output.isFull(value.size() - 1)) {
+                output.append(value.toString());
+                return;
+            }
+
+            int size = value.size();
+            int index = 0;
+            Iterator<Entry> iterator = value.entrySet().iterator();
+
+            output.append('{');
+            while (iterator.hasNext()) {
+                if (index != 0) {
+                    output.append(", ");
+                }
+
+                if (output.isFull(index)) {
+                    output.elide(size - index);
+                    break;
+                }
+
+                Entry entry = iterator.next();
+                element(entry.getKey(), value, "(this Map)", output);
+                output.append('=');
+                element(entry.getValue(), value, "(this Map)", output);
+                index++;
+            }
+            output.append('}');
         }
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * Render the element of array, collection or map in the format of {@link String#valueOf(Object)}
+     * within the budget of the enclosing value. The nested container is rendered recursively and
+     * the text is written without copy, so the large element stops as soon as the output is full.
+     * 
+     * @param item An element.
+     * @param container The enclosing value.
+     * @param self The text for the self reference.
+     * @param output A destination.
      */
-    private static final class DoubleArrayRnederer extends PowerAssertRenderer<double[]> {
+    private static void element(Object item, Object container, String self, Output output) {
+        if (item == container) {
+            output.append(self);
+        } else if (item instanceof CharSequence) {
+            output.append((CharSequence) item);
+        } else if (item != null && (item.getClass().isArray() || item instanceof Collection || item instanceof Map)) {
+            format(item, output);
+        } else {
+            output.append(String.valueOf(item));
+        }
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        protected String render(double[] value) {
-            return Arrays.toString(value);
+    /**
+     * Check whether the specified value uses the standard text format of JDK.
+     * 
+     * @param value A collection or map.
+     * @return A result.
+     */
+    private static boolean isStandard(Object value) {
+        try {
+            return value.getClass().getMethod("toString").getDeclaringClass().getName().startsWith("java.util.");
+        } catch (NoSuchMethodException e) {
+            return false;
         }
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * @version 2018/09/28 21:20:00
      */
-    private static final class BooleanArrayRnederer extends PowerAssertRenderer<boolean[]> {
+    private static final class ObjectRnederer extends PowerAssertRenderer<Object> {
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(boolean[] value) {
-            return Arrays.toString(value);
+        protected String render(Object value) {
+            return value.toString();
         }
     }
 
     /**
-     * @version 2012/02/15 12:06:51
+     * The size-capped output. The characters which exceed the limit are discarded and the elision
+     * marker is written once instead.
      */
-    private static final class CharArrayRnederer extends PowerAssertRenderer<char[]> {
+    public static final class Output implements Appendable {
+
+        /** The destination. */
+        private final Appendable output;
+
+        /** The maximum number of elements. */
+        private final int maxElements;
+
+        /** The number of writable characters. */
+        private int remaining;
+
+        /** The state. */
+        private boolean truncated;
 
         /**
-         * {@inheritDoc}
+         * @param output
+         * @param maxElements
+         * @param maxCharacters
          */
-        @Override
-        protected String render(char[] value) {
-            return Arrays.toString(value);
+        private Output(Appendable output, int maxElements, int maxCharacters) {
+            this.output = output;
+            this.maxElements = maxElements;
+            this.remaining = maxCharacters;
         }
-    }
 
-    /**
-     * @version 2012/02/15 12:06:51
-     */
-    private static final class ByteArrayRnederer extends PowerAssertRenderer<byte[]> {
+        /**
+         * Get the number of writable characters.
+         * 
+         * @return The number of writable characters.
+         */
+        public int remaining() {
+            return remaining;
+        }
 
         /**
-         * {@inheritDoc}
+         * Check whether the element at the specified index should be elided or not.
+         * 
+         * @param index An element index.
+         * @return <code>true</code> if the element should be elided.
          */
-        @Override
-        protected String render(byte[] value) {
-            return Arrays.toString(value);
+        public boolean isFull(int index) {
+            return maxElements <= index || remaining <= 0;
         }
-    }
 
-    /**
-     * @version 2012/02/15 12:06:51
-     */
-    private static final class ShortArrayRnederer extends PowerAssertRenderer<short[]> {
+        /**
+         * Write the elision marker. It is written even if this output is full.
+         * 
+         * @param size The number of elided elements or characters.
+         * @return Chainable API.
+         */
+        public Output elide(long size) {
+            truncated = true;
+            return write("… ").number(size).write(" more");
+        }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(short[] value) {
-            return Arrays.toString(value);
+        public Output append(CharSequence text) {
+            return append(text, 0, text == null ? 4 : text.length());
         }
-    }
-
-    /**
-     * @version 2012/02/15 12:06:51
-     */
-    private static final class ObjectArrayRnederer extends PowerAssertRenderer<Object[]> {
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(Object[] value) {
-            return Arrays.toString(value);
-        }
-    }
+        public Output append(CharSequence text, int start, int end) {
+            if (text == null) {
+                text = "null";
+            }
 
-    /**
-     * @version 2018/09/28 21:20:00
-     */
-    private static final class ObjectRnederer extends PowerAssertRenderer<Object> {
+            int size = end - start;
+
+            if (size <= remaining) {
+                remaining -= size;
+                return write(text, start, end);
+            }
+
+            write(text, start, start + remaining);
+            remaining = 0;
+
+            if (!truncated) {
+                truncated = true;
+                write("…");
+            }
+            return this;
+        }
 
         /**
          * {@inheritDoc}
          */
         @Override
-        protected String render(Object value) {
-            return value.toString();
+        public Output append(char c) {
+            if (0 < remaining) {
+                remaining--;
+
+                try {
+                    output.append(c);
+                } catch (IOException e) {
+                    throw new IOError(e);
+                }
+            } else if (!truncated) {
+                truncated = true;
+                write("…");
+            }
+            return this;
+        }
+
+        /**
+         * Write the formatted number without limit.
+         * 
+         * @param value A number.
+         * @return Chainable API.
+         */
+        private Output number(long value) {
+            return write(String.format(Locale.ROOT, "%,d", value));
+        }
+
+        /**
+         * Write text without limit.
+         */
+        private Output write(CharSequence text) {
+            return write(text, 0, text.length());
+        }
+
+        /**
+         * Write text without limit.
+         */
+        private Output write(CharSequence text, int start, int end) {
+            try {
+                output.append(text, start, end);
+                return this;
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
         }
     }
 }
\ No newline at end of file
@@ -26,6 +26,8 @@ import static net.bytebuddy.jar.asm.Opcodes.DCONST_0;
 import static net.bytebuddy.jar.asm.Opcodes.DCONST_1;
 import static net.bytebuddy.jar.asm.Opcodes.DDIV;
 import static net.bytebuddy.jar.asm.Opcodes.DMUL;
+import static net.bytebuddy.jar.asm.Opcodes.DUP;
+import static net.bytebuddy.jar.asm.Opcodes.DUP2;
 import static net.bytebuddy.jar.asm.Opcodes.DNEG;
 import static net.bytebuddy.jar.asm.Opcodes.DREM;
 import static net.bytebuddy.jar.asm.Opcodes.DSUB;
@@ -43,6 +45,7 @@ import static net.bytebuddy.jar.asm.Opcodes.FREM;
 import static net.bytebuddy.jar.asm.Opcodes.FSUB;
 import static net.bytebuddy.jar.asm.Opcodes.GETFIELD;
 import static net.bytebuddy.jar.asm.Opcodes.GETSTATIC;
+import static net.bytebuddy.jar.asm.Opcodes.GOTO;
 import static net.bytebuddy.jar.asm.Opcodes.H_INVOKESTATIC;
 import static net.bytebuddy.jar.asm.Opcodes.IADD;
 import static net.bytebuddy.jar.asm.Opcodes.IALOAD;
@@ -77,6 +80,7 @@ import static net.bytebuddy.jar.asm.Opcodes.IOR;
 import static net.bytebuddy.jar.asm.Opcodes.IREM;
 import static net.bytebuddy.jar.asm.Opcodes.ISHL;
 import static net.bytebuddy.jar.asm.Opcodes.ISHR;
+import static net.bytebuddy.jar.asm.Opcodes.ISTORE;
 import static net.bytebuddy.jar.asm.Opcodes.ISUB;
 import static net.bytebuddy.jar.asm.Opcodes.IUSHR;
 import static net.bytebuddy.jar.asm.Opcodes.IXOR;
@@ -108,6 +112,8 @@ import static net.bytebuddy.jar.asm.Opcodes.T_INT;
 import static net.bytebuddy.jar.asm.Opcodes.T_LONG;
 import static net.bytebuddy.jar.asm.Opcodes.T_SHORT;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -120,10 +126,26 @@ import net.bytebuddy.jar.asm.Opcodes;
 import net.bytebuddy.jar.asm.Type;
 
 /**
+ * Translate assert statement to record its evaluation. The journal is not built while the
+ * condition is evaluated, the intermediate values are only kept in the local variables and the
+ * executed basic blocks are flagged. When the assertion fails, the recorded operations in the
+ * executed blocks are replayed to the newly created {@link PowerAssertContext}, so the successful
+ * assertion allocates nothing.
+ * <p>
+ * All those local variables must be assigned on every path to the failure point, so the method
+ * body is pre-scanned to know them and they are initialized at the beginning of the assertion.
+ * </p>
+ * 
  * @version 2018/04/03 23:42:19
  */
 class PowerAssertTranslator extends Translator {
 
+    /** The record kind of the local variable table {kind, owner, name, desc, (index, name, desc)*}. */
+    private static final String LOCALS = "locals";
+
+    /** The record kind of the lambda link {kind, owner, name, desc, index, enclosing name, enclosing desc, enclosing index}. */
+    private static final String LINK = "link";
+
     /** The state. */
     private boolean startAssertion = false;
 
@@ -136,11 +158,210 @@ class PowerAssertTranslator extends Translator {
     /** The state. */
     private boolean compare = false;
 
-    /** The context for code log. */
-    private Journal journal;
+    /** The deferred journal calls of the current assertion. */
+    private final List<Call> calls = new ArrayList();
+
+    /** The recorder of journal calls. */
+    private final Journal journal = (Journal) Proxy
+            .newProxyInstance(Journal.class.getClassLoader(), new Class[] {Journal.class}, (proxy, method, args) -> {
+                calls.add(new Call(flag(), method, args));
+                return null;
+            });
+
+    /** The actual context for code log, it is created at the failure point. */
+    private Journal context;
+
+    /** The local variable layouts of all assertions, they are collected in pre-scan. */
+    private final List<Layout> layouts = new ArrayList();
+
+    /** The local variable layout of the current assertion. */
+    private Layout layout;
+
+    /** The number of processed assertions in the current pass. */
+    private int assertions;
+
+    /** The execution flag of the current basic block. */
+    private LocalVariable flag;
 
     private List<Integer> parameterIndex = new ArrayList();
 
+    /** The declared local variables {name, description} by index. */
+    private final List<String[]> variables = new ArrayList();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean requireLocalVariables() {
+        // variable names are resolved at runtime by PowerAssertContext
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean requirePrescan() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitCode() {
+        super.visitCode();
+
+        // reset per-pass state
+        startAssertion = false;
+        skipNextJump = false;
+        processAssertion = false;
+        compare = false;
+        context = null;
+        layout = null;
+        assertions = 0;
+        flag = null;
+        calls.clear();
+        parameterIndex.clear();
+        variables.clear();
+    }
+
+    /**
+     * Start the new assertion. All local variables used in it are initialized here.
+     */
+    private void startAssertion() {
+        if (isPrescanning()) {
+            layouts.add(layout = new Layout());
+        } else {
+            layout = layouts.get(assertions);
+            layout.locals.clear();
+            layout.used = 0;
+
+            for (Type type : layout.types) {
+                LocalVariable local = newLocal(type);
+
+                switch (type.getSort()) {
+                case Type.LONG:
+                    mv.visitInsn(LCONST_0);
+                    break;
+
+                case Type.FLOAT:
+                    mv.visitInsn(FCONST_0);
+                    break;
+
+                case Type.DOUBLE:
+                    mv.visitInsn(DCONST_0);
+                    break;
+
+                case Type.ARRAY:
+                case Type.OBJECT:
+                    mv.visitInsn(ACONST_NULL);
+                    break;
+
+                default:
+                    mv.visitInsn(ICONST_0);
+                    break;
+                }
+                local.store();
+                layout.locals.add(local);
+            }
+        }
+        assertions++;
+        flag = null;
+        calls.clear();
+    }
+
+    /**
+     * Build the journal of the failed assertion by replaying the recorded calls in the executed
+     * blocks.
+     */
+    private void failAssertion() {
+        // the assertion site identifies the expression template
+        String type = Type.getInternalName(PowerAssertContext.class);
+        mv.visitTypeInsn(NEW, type);
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn(className + "#" + methodName + methodType.getDescriptor() + "#" + (assertions - 1));
+        loadMethodIdentifier();
+        mv.visitMethodInsn(INVOKESPECIAL, type, "<init>", "(Ljava/lang/String;I)V", false);
+
+        LocalVariable local = newLocal(Type.getObjectType(type));
+        local.store();
+        context = createAPI(local, Journal.class);
+
+        LocalVariable current = null;
+        Label skip = null;
+
+        for (Call call : calls) {
+            if (call.flag != current) {
+                if (skip != null) {
+                    mv.visitLabel(skip);
+                }
+                current = call.flag;
+                skip = new Label();
+
+                current.load();
+                mv.visitJumpInsn(IFEQ, skip);
+            }
+
+            try {
+                call.method.invoke(context, call.args);
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+
+        if (skip != null) {
+            mv.visitLabel(skip);
+        }
+        calls.clear();
+        flag = null;
+    }
+
+    /**
+     * Allocate the local variable of the current assertion.
+     * 
+     * @param type A variable type.
+     * @return The allocated variable.
+     */
+    private LocalVariable allocate(Type type) {
+        if (isPrescanning()) {
+            layout.types.add(type);
+            return newLocal(type);
+        } else {
+            return layout.locals.get(layout.used++);
+        }
+    }
+
+    /**
+     * Store the current value on the stack into the local variable of the current assertion.
+     * 
+     * @param type A value type.
+     * @return The stored variable.
+     */
+    private LocalVariable capture(Type type) {
+        mv.visitInsn(type.getSize() == 1 ? DUP : DUP2);
+
+        LocalVariable local = allocate(type);
+        local.store();
+
+        return local;
+    }
+
+    /**
+     * Mark the current basic block as executed.
+     * 
+     * @return The execution flag of the current basic block.
+     */
+    private LocalVariable flag() {
+        if (flag == null) {
+            flag = allocate(Type.INT_TYPE);
+
+            mv.visitInsn(ICONST_1);
+            flag.store();
+        }
+        return flag;
+    }
+
     /**
      * <p>
      * Compute simple class name.
@@ -173,11 +394,11 @@ class PowerAssertTranslator extends Translator {
 
         if (processAssertion) {
             // store current value
-            LocalVariable local = copy(Type.getType(desc));
+            LocalVariable local = capture(Type.getType(desc));
 
             switch (opcode) {
             case GETFIELD:
-                journal.field(name, desc, local, methodIdentifier);
+                journal.field(name, desc, local);
                 break;
 
             case GETSTATIC:
@@ -194,6 +415,10 @@ class PowerAssertTranslator extends Translator {
      */
     @Override
     public void visitJumpInsn(int opcode, Label label) {
+        if (processAssertion && opcode != GOTO) {
+            // the condition belongs to the block which ends with this jump
+            flag();
+        }
         super.visitJumpInsn(opcode, label);
         parameterIndex.clear();
 
@@ -258,16 +483,25 @@ class PowerAssertTranslator extends Translator {
                 break;
             }
         }
+        flag = null;
 
         if (skipNextJump) {
             skipNextJump = false;
             processAssertion = true;
 
-            // create new journal for this assertion
-            journal = instantiate(Journal.class, PowerAssertContext.class);
+            startAssertion();
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitLabel(Label label) {
+        super.visitLabel(label);
+        flag = null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -276,6 +510,9 @@ class PowerAssertTranslator extends Translator {
         if (processAssertion && opcode == NEW && type.equals("java/lang/AssertionError")) {
             processAssertion = false;
 
+            // the journal is built only when the assertion has failed
+            failAssertion();
+
             // replace AssertionError with PowerAssertionError
             super.visitTypeInsn(opcode, Type.getType(PowerAssertionError.class).getInternalName());
             return;
@@ -291,7 +528,7 @@ class PowerAssertTranslator extends Translator {
                 break;
 
             case ANEWARRAY:
-                LocalVariable local = copy(Type.getObjectType(type));
+                LocalVariable local = capture(Type.getObjectType(type));
 
                 journal.arrayNew(computeClassName(type), local);
                 break;
@@ -306,7 +543,7 @@ class PowerAssertTranslator extends Translator {
     public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean access) {
         // replace invocation of AssertionError constructor.
         if (startAssertion && opcode == INVOKESPECIAL && owner.equals("java/lang/AssertionError")) {
-            load(journal); // load context
+            load(context); // load context
 
             // append parameter for context
             StringBuilder builder = new StringBuilder(desc);
@@ -331,7 +568,7 @@ class PowerAssertTranslator extends Translator {
             boolean constructor = name.charAt(0) == '<';
 
             // save current value
-            LocalVariable local = copy(constructor ? Type.getObjectType(owner) : type.getReturnType());
+            LocalVariable local = capture(constructor ? Type.getObjectType(owner) : type.getReturnType());
 
             switch (opcode) {
             case INVOKESTATIC:
@@ -360,7 +597,7 @@ class PowerAssertTranslator extends Translator {
         parameterIndex.clear();
 
         if (processAssertion) {
-            journal.increment(methodIdentifier, index, increment);
+            journal.increment(index, increment);
         }
     }
 
@@ -375,7 +612,7 @@ class PowerAssertTranslator extends Translator {
         if (processAssertion) {
             switch (opcode) {
             case NEWARRAY:
-                LocalVariable local = copy(Bytecode.OBJECT_TYPE);
+                LocalVariable local = capture(Bytecode.OBJECT_TYPE);
 
                 switch (operand) {
                 case T_BOOLEAN:
@@ -448,31 +685,31 @@ class PowerAssertTranslator extends Translator {
                 break;
 
             case IALOAD:
-                journal.arrayIndex(copy(Type.INT_TYPE));
+                journal.arrayIndex(capture(Type.INT_TYPE));
                 break;
 
             case LALOAD:
-                journal.arrayIndex(copy(Type.LONG_TYPE));
+                journal.arrayIndex(capture(Type.LONG_TYPE));
                 break;
 
             case FALOAD:
-                journal.arrayIndex(copy(Type.FLOAT_TYPE));
+                journal.arrayIndex(capture(Type.FLOAT_TYPE));
                 break;
 
             case DALOAD:
-                journal.arrayIndex(copy(Type.DOUBLE_TYPE));
+                journal.arrayIndex(capture(Type.DOUBLE_TYPE));
                 break;
 
             case BALOAD:
-                journal.arrayIndex(copy(Type.BOOLEAN_TYPE));
+                journal.arrayIndex(capture(Type.BOOLEAN_TYPE));
                 break;
 
             case CALOAD:
-                journal.arrayIndex(copy(Type.CHAR_TYPE));
+                journal.arrayIndex(capture(Type.CHAR_TYPE));
                 break;
 
             case AALOAD:
-                journal.arrayIndex(copy(Bytecode.OBJECT_TYPE));
+                journal.arrayIndex(capture(Bytecode.OBJECT_TYPE));
                 break;
 
             case IASTORE:
@@ -486,7 +723,7 @@ class PowerAssertTranslator extends Translator {
                 break;
 
             case ARRAYLENGTH:
-                journal.field("length", "I", copy(Type.INT_TYPE), methodIdentifier);
+                journal.field("length", "I", capture(Type.INT_TYPE));
                 break;
 
             case IADD:
@@ -591,8 +828,9 @@ class PowerAssertTranslator extends Translator {
         super.visitVarInsn(opcode, index);
         parameterIndex.add(index);
 
-        if (processAssertion) {
-            journal.local(methodIdentifier, index, local(opcode, index));
+        if (processAssertion && opcode < ISTORE) {
+            // keep the value at this time, the variable may be changed later in the assertion
+            journal.local(index, capture(new LocalVariable(opcode, index).type));
         }
     }
 
@@ -604,7 +842,61 @@ class PowerAssertTranslator extends Translator {
         super.visitLocalVariable(name, desc, signature, start, end, index);
         parameterIndex.clear();
 
-        PowerAssertContext.registerLocalVariable(methodIdentifier, name, desc, index);
+        if (!isPrescanning()) {
+            while (variables.size() <= index) {
+                variables.add(null);
+            }
+            variables.set(index, new String[] {name, desc});
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitEnd() {
+        // publish the local variable table once per method
+        if (!variables.isEmpty()) {
+            List<String> record = new ArrayList();
+            record.add(LOCALS);
+            record.add(className);
+            record.add(methodName);
+            record.add(methodType.getDescriptor());
+
+            for (int i = 0; i < variables.size(); i++) {
+                String[] variable = variables.get(i);
+
+                if (variable != null) {
+                    record.add(String.valueOf(i));
+                    record.add(variable[0]);
+                    record.add(variable[1]);
+                }
+            }
+            register(record.toArray(String[]::new));
+        }
+        super.visitEnd();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void restore(String... record) {
+        switch (record[0]) {
+        case LOCALS:
+            String[][] variables = new String[Integer.parseInt(record[record.length - 3]) + 1][];
+
+            for (int i = 4; i < record.length; i += 3) {
+                variables[Integer.parseInt(record[i])] = new String[] {record[i + 1], record[i + 2]};
+            }
+            PowerAssertContext.registerLocalVariables(methodIdentifier(record[1], record[2], record[3]), variables);
+            break;
+
+        case LINK:
+            PowerAssertContext.linkLocalVariable(methodIdentifier(record[1], record[2], record[3]), Integer
+                    .parseInt(record[4]), methodIdentifier(record[1], record[5], record[6]), Integer.parseInt(record[7]));
+            break;
+        }
     }
 
     /**
@@ -626,7 +918,6 @@ class PowerAssertTranslator extends Translator {
         int parameterDiff = lambdaType.getArgumentTypes().length - functionalInterfaceType.getArgumentTypes().length;
 
         if (parameterDiff != 0) {
-            int calleeMethodId = methodIdentifier(className, handle.getName(), Type.getMethodType(handle.getDesc()));
             boolean needAccessToInstance = handle.getTag() == Opcodes.H_INVOKESPECIAL;
 
             for (int i = 0; i < parameterDiff; i++) {
@@ -638,9 +929,10 @@ class PowerAssertTranslator extends Translator {
                 // hand, local variable declarations do exist and can be used.
                 // However, it is impossible to tell at runtime which compiler the code was
                 // processed by, so it must be able to handle either.
-                PowerAssertContext.registerLocalVariable(calleeMethodId, i + (needAccessToInstance ? 1 : 0), () -> {
-                    return PowerAssertContext.getLocalVariable(methodIdentifier).get(index).get();
-                }, false);
+                if (!isPrescanning()) {
+                    register(LINK, className, handle.getName(), handle.getDesc(), String
+                            .valueOf(i + (needAccessToInstance ? 1 : 0)), methodName, methodType.getDescriptor(), String.valueOf(index));
+                }
             }
         }
 
@@ -662,6 +954,7 @@ class PowerAssertTranslator extends Translator {
     public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
         super.visitTableSwitchInsn(min, max, dflt, labels);
         parameterIndex.clear();
+        flag = null;
     }
 
     /**
@@ -671,6 +964,7 @@ class PowerAssertTranslator extends Translator {
     public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
         super.visitLookupSwitchInsn(dflt, keys, labels);
         parameterIndex.clear();
+        flag = null;
     }
 
     /**
@@ -690,4 +984,45 @@ class PowerAssertTranslator extends Translator {
         super.visitTryCatchBlock(start, end, handler, type);
         parameterIndex.clear();
     }
-}
\ No newline at end of file
+
+    /**
+     * The deferred journal call.
+     */
+    private static class Call {
+
+        /** The execution flag of the block which contains this call. */
+        private final LocalVariable flag;
+
+        /** The journal method. */
+        private final Method method;
+
+        /** The arguments. */
+        private final Object[] args;
+
+        /**
+         * @param flag
+         * @param method
+         * @param args
+         */
+        private Call(LocalVariable flag, Method method, Object[] args) {
+            this.flag = flag;
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    /**
+     * The local variables which are used in the assertion.
+     */
+    private static class Layout {
+
+        /** The variable types in allocation order. */
+        private final List<Type> types = new ArrayList();
+
+        /** The allocated variables. */
+        private final List<LocalVariable> locals = new ArrayList();
+
+        /** The number of used variables. */
+        private int used;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.profiler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed size log-linear histogram for non-negative long values (typically nano seconds). Each
+ * power of two range is split into 32 sub buckets, so any reported percentile is within about 3%
+ * of the actual value. Recording is lock-free and allocation-free.
+ */
+public class Histogram {
+
+    /** The number of bits for sub bucket. */
+    private static final int SUB_BITS = 5;
+
+    /** The number of sub buckets per power of two. */
+    private static final int SUB_SIZE = 1 << SUB_BITS;
+
+    /** The number of all buckets. */
+    private static final int SIZE = (64 - SUB_BITS + 1) * SUB_SIZE;
+
+    /** The bucket counts. */
+    private final AtomicLongArray buckets = new AtomicLongArray(SIZE);
+
+    /** The number of recorded values. */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of recorded values. */
+    private final LongAdder sum = new LongAdder();
+
+    /** The minimum recorded value. */
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    /** The maximum recorded value. */
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Record the specified value. Negative value is treated as zero.
+     *
+     * @param value A value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        buckets.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        min.accumulateAndGet(value, Math::min);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Add all values which are recorded in the specified histogram.
+     *
+     * @param other A histogram to merge.
+     */
+    public void merge(Histogram other) {
+        if (other != null && other != this) {
+            for (int i = 0; i < SIZE; i++) {
+                long value = other.buckets.get(i);
+
+                if (value != 0) {
+                    buckets.addAndGet(i, value);
+                }
+            }
+            count.add(other.count.sum());
+            sum.add(other.sum.sum());
+            min.accumulateAndGet(other.min.get(), Math::min);
+            max.accumulateAndGet(other.max.get(), Math::max);
+        }
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < SIZE; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * Get the number of recorded values.
+     *
+     * @return The number of recorded values.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of recorded values.
+     *
+     * @return The sum of recorded values.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the minimum recorded value or zero when nothing is recorded.
+     *
+     * @return The minimum value.
+     */
+    public long min() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * Get the maximum recorded value or zero when nothing is recorded.
+     *
+     * @return The maximum value.
+     */
+    public long max() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+
+    /**
+     * Get the arithmetic mean of recorded values.
+     *
+     * @return The mean value.
+     */
+    public double mean() {
+        long size = count();
+        return size == 0 ? 0 : (double) sum() / size;
+    }
+
+    /**
+     * Estimate the value at the specified percentile.
+     *
+     * @param percentile A percentile in range [0, 100].
+     * @return The estimated value or zero when nothing is recorded.
+     */
+    public long percentile(double percentile) {
+        long size = 0;
+        long[] snapshot = new long[SIZE];
+
+        for (int i = 0; i < SIZE; i++) {
+            size += snapshot[i] = buckets.get(i);
+        }
+
+        if (size == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * size));
+        long accumulated = 0;
+
+        for (int i = 0; i < SIZE; i++) {
+            accumulated += snapshot[i];
+
+            if (rank <= accumulated) {
+                return Math.max(min(), Math.min(max(), highest(i)));
+            }
+        }
+        return max();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d min=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d", count(), min(), mean(), percentile(50), percentile(90), percentile(99), percentile(99.9), max());
+    }
+
+    /**
+     * Compute bucket index of the specified value.
+     *
+     * @param value A non-negative value.
+     * @return The bucket index.
+     */
+    private static int index(long value) {
+        if (value < SUB_SIZE) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_SIZE + (int) ((value >>> shift) - SUB_SIZE);
+    }
+
+    /**
+     * Compute the highest value which is stored in the specified bucket.
+     *
+     * @param index A bucket index.
+     * @return The highest value.
+     */
+    private static long highest(int index) {
+        if (index < SUB_SIZE) {
+            return index;
+        }
+
+        int shift = index / SUB_SIZE - 1;
+        long mantissa = SUB_SIZE + index % SUB_SIZE;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
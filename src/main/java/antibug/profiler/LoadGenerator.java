@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.profiler;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import antibug.Chronus;
+
+/**
+ * Open-loop load generator. It fires the task on {@link Chronus} at the intended start times which
+ * are decided by the arrival process (constant, ramp or Poisson) regardless of the completion of
+ * the previous tasks, and records the latency from the intended start time to the completion. So
+ * the queueing delay is never hidden even if the system under test is saturated (no coordinated
+ * omission).
+ * <pre>
+ * Histogram latency = LoadGenerator.poisson(1000).run(Chronus.threadPerTask(), 10, SECONDS, () -> {
+ *     client.request();
+ * });
+ * assert latency.percentile(99) &lt; MILLISECONDS.toNanos(20);
+ * </pre>
+ * <p>
+ * The task should block until its work is completed, use the thread-per-task {@link Chronus} to
+ * simulate many concurrent blocking clients. The arrivals are scheduled on the fly a little ahead
+ * of their start times, so the long run doesn't hold all pending arrivals.
+ * </p>
+ * <p>
+ * After the duration, the generator waits only for its own fired tasks (the other tasks on the
+ * same {@link Chronus} are not concerned) up to the await limit, which is the run duration unless
+ * {@link #configAwaitLimit(long, TimeUnit)} is specified. The task which is still running at the
+ * limit is recorded with its latency so far, so the histogram is returned as the lower bound
+ * instead of being lost.
+ * </p>
+ */
+public class LoadGenerator {
+
+    /** The scheduling window ahead of the intended start time in nanoseconds. */
+    private static final long WINDOW = MILLISECONDS.toNanos(10);
+
+    /** The polling interval to wait for the fired tasks in nanoseconds. */
+    private static final long POLLING = MILLISECONDS.toNanos(1);
+
+    /** The arrival process. */
+    private final Arrival arrival;
+
+    /** The random seed for the arrival process. */
+    private long seed = System.nanoTime();
+
+    /** The time limit to wait for the fired tasks in nanoseconds, negative means the duration. */
+    private long awaitLimit = -1;
+
+    /**
+     * @param arrival
+     */
+    private LoadGenerator(Arrival arrival) {
+        this.arrival = arrival;
+    }
+
+    /**
+     * Fire the task at the constant rate.
+     * 
+     * @param rate The number of tasks per second.
+     * @return The load generator.
+     */
+    public static LoadGenerator constant(double rate) {
+        check(rate);
+
+        return new LoadGenerator((index, previous, duration, random) -> (long) (index * 1e9 / rate));
+    }
+
+    /**
+     * Fire the task at the rate which changes linearly from the start rate to the end rate in the
+     * duration.
+     * 
+     * @param from The number of tasks per second at start.
+     * @param to The number of tasks per second at end.
+     * @return The load generator.
+     */
+    public static LoadGenerator ramp(double from, double to) {
+        if (from < 0 || to < 0 || from + to == 0) {
+            throw new IllegalArgumentException("Rate must be non-negative and not all zero.");
+        }
+
+        return new LoadGenerator((index, previous, duration, random) -> {
+            if (index == 0) {
+                return 0;
+            }
+
+            // solve from * t + (to - from) * t^2 / (2 * duration) = index in seconds
+            double a = (to - from) / (2 * (duration / 1e9));
+            double discriminant = from * from + 4 * a * index;
+
+            // the decreasing rate reaches zero before the index-th arrival, so no more arrival
+            if (discriminant < 0) {
+                return Long.MAX_VALUE;
+            }
+
+            double seconds = 2 * index / (from + Math.sqrt(discriminant));
+            return Double.isFinite(seconds) ? (long) (seconds * 1e9) : Long.MAX_VALUE;
+        });
+    }
+
+    /**
+     * Fire the task at the Poisson arrivals, the interval between tasks follows the exponential
+     * distribution.
+     * 
+     * @param rate The average number of tasks per second.
+     * @return The load generator.
+     */
+    public static LoadGenerator poisson(double rate) {
+        check(rate);
+
+        return new LoadGenerator((index, previous, duration, random) -> previous + (long) (-Math.log(1 - random.nextDouble()) * 1e9 / rate));
+    }
+
+    /**
+     * Check the rate.
+     * 
+     * @param rate A rate.
+     */
+    private static void check(double rate) {
+        if (!(0 < rate) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Rate must be positive.");
+        }
+    }
+
+    /**
+     * Config the random seed of arrival process to reproduce the same arrivals.
+     * 
+     * @param seed A random seed.
+     * @return Chainable API.
+     */
+    public LoadGenerator configSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Config the time limit to wait for the fired tasks after the duration. (default is the run
+     * duration)
+     * 
+     * @param time A time limit.
+     * @param unit A time unit.
+     * @return Chainable API.
+     */
+    public LoadGenerator configAwaitLimit(long time, TimeUnit unit) {
+        this.awaitLimit = Math.max(0, unit.toNanos(time));
+        return this;
+    }
+
+    /**
+     * Fire the task in the specified duration and wait for all fired tasks within the await limit.
+     * 
+     * @param chronus The scheduler and clock.
+     * @param time The duration.
+     * @param unit A time unit.
+     * @param task The task to fire.
+     * @return The latency histogram from the intended start time to the completion in nanoseconds.
+     */
+    public Histogram run(Chronus chronus, long time, TimeUnit unit, Runnable task) {
+        Objects.requireNonNull(chronus);
+        Objects.requireNonNull(task);
+
+        long duration = unit.toNanos(time);
+        Random random = new Random(seed);
+        Histogram latency = new Histogram();
+        Set<Measured> pending = ConcurrentHashMap.newKeySet();
+        long start = chronus.nanoTime();
+        long index = 0;
+        long next = arrival.next(index, 0, duration, random);
+
+        while (next < duration) {
+            // schedule all arrivals in the window
+            long horizon = chronus.nanoTime() - start + WINDOW;
+
+            while (next < duration && next <= horizon) {
+                fire(chronus, new Measured(chronus, start + next, task, latency, pending));
+                next = arrival.next(++index, next, duration, random);
+            }
+
+            if (next < duration) {
+                chronus.await(start + next - WINDOW - chronus.nanoTime(), NANOSECONDS);
+            }
+        }
+
+        chronus.await(start + duration - chronus.nanoTime(), NANOSECONDS);
+
+        // wait for the fired tasks only
+        long deadline = start + duration + (awaitLimit < 0 ? duration : awaitLimit);
+        long now;
+
+        while (!pending.isEmpty() && (now = chronus.nanoTime()) < deadline) {
+            chronus.await(Math.min(POLLING, deadline - now), NANOSECONDS);
+        }
+
+        // record the unfinished tasks with their latency so far
+        for (Measured measured : pending) {
+            measured.record();
+        }
+        return latency;
+    }
+
+    /**
+     * Fire the task at the intended time.
+     * 
+     * @param chronus The scheduler and clock.
+     * @param measured The task to fire.
+     */
+    private void fire(Chronus chronus, Measured measured) {
+        long delay = measured.intended - chronus.nanoTime();
+        if (delay <= 0) {
+            // don't run on the generator thread
+            chronus.execute(measured);
+        } else {
+            chronus.schedule(measured, delay, NANOSECONDS);
+        }
+    }
+
+    /**
+     * The fired task which records its latency only once.
+     */
+    private static class Measured implements Runnable {
+
+        /** The scheduler and clock. */
+        private final Chronus chronus;
+
+        /** The intended start time. */
+        private final long intended;
+
+        /** The actual task. */
+        private final Runnable task;
+
+        /** The latency histogram. */
+        private final Histogram latency;
+
+        /** The unfinished tasks. */
+        private final Set<Measured> pending;
+
+        /**
+         * @param chronus
+         * @param intended
+         * @param task
+         * @param latency
+         * @param pending
+         */
+        private Measured(Chronus chronus, long intended, Runnable task, Histogram latency, Set<Measured> pending) {
+            this.chronus = chronus;
+            this.intended = intended;
+            this.task = task;
+            this.latency = latency;
+            this.pending = pending;
+
+            pending.add(this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                record();
+            }
+        }
+
+        /**
+         * Record the latency from the intended start time if it is not recorded yet.
+         */
+        private void record() {
+            if (pending.remove(this)) {
+                latency.record(chronus.nanoTime() - intended);
+            }
+        }
+    }
+
+    /**
+     * The arrival process.
+     */
+    private interface Arrival {
+
+        /**
+         * Compute the intended start time of the arrival.
+         * 
+         * @param index The arrival index.
+         * @param previous The intended start time of the previous arrival from start in nanoseconds.
+         * @param duration The whole duration in nanoseconds.
+         * @param random The random source.
+         * @return The intended start time from start in nanoseconds.
+         */
+        long next(long index, long previous, long duration, Random random);
+    }
+}
\ No newline at end of file
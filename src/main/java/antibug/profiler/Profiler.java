@@ -9,8 +9,11 @@
  */
 package antibug.profiler;
 
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +22,7 @@ import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
 
 public class Profiler<K, E, Y> {
 
@@ -125,7 +129,7 @@ public class Profiler<K, E, Y> {
             now.previous = latest;
             now.count++;
             latest = now;
-            now.start();
+            now.enter();
         }
     }
 
@@ -199,6 +203,7 @@ public class Profiler<K, E, Y> {
     public final void stop() {
         if (execute) {
             latest.stop();
+            latest.exit();
             latest = latest.previous;
             latest.start();
         }
@@ -209,49 +214,114 @@ public class Profiler<K, E, Y> {
      */
     public final void show() {
         if (execute) {
-            long total = 0;
-            Map<Object, Result> grouped = new HashMap();
-
-            for (Result result : results.values()) {
-                Object key = group(result.key1, result.key2, result.key3);
+            Report report = report();
 
-                Result computed = grouped.computeIfAbsent(key, name -> new Result(name(result.key1, result.key2, result.key3)));
-                computed.elapsed += result.elapsed;
-                computed.count += result.count;
-
-                total += result.elapsed;
-            }
-
-            List<Result> list = new ArrayList(grouped.values());
-            Collections.sort(list, Comparator.<Result> comparingDouble(item -> item.elapsed).reversed());
-
-            show(total, list);
+            show(report.total(), report.rows());
         }
     }
 
     /**
      * Show profiling result.
      * 
-     * @param results
+     * @param total The total profiled time. (unit: ns)
+     * @param results The rows to show.
      */
     protected void show(double total, List<Result> results) {
-        System.out.format("Total Profiled Time: %-6.0fms%n", total / 1000000);
+        System.out.print(text(total, results));
+    }
 
-        int size = Math.min(15, results.size());
+    /**
+     * Create the report builder which is used by {@link #show()}. The default report lists the top
+     * 15 groups sorted by the exclusive time. Override this method to change the default report.
+     * 
+     * @return A new report builder.
+     */
+    public Report report() {
+        return new Report().top(15);
+    }
 
-        String name = max(results.subList(0, size), v -> v.name, true);
-        String time = max(results.subList(0, size), v -> String.valueOf(v.elapsed), false);
-        String count = max(results.subList(0, size), v -> String.valueOf(v.count), false);
+    /**
+     * Group all profiling results by {@link #group(Object, Object, Object)}.
+     * 
+     * @return The grouped results.
+     */
+    private List<Result> grouped() {
+        Map<Object, Result> grouped = new HashMap();
 
-        for (int i = 0; i < size; i++) {
-            Result result = results.get(i);
+        for (Result result : results.values()) {
+            Object key = group(result.key1, result.key2, result.key3);
 
-            if (result.elapsed != 0) {
-                String format = name + "  " + time + "ms  %2.0f%%  " + count + "count%n";
+            Result computed = grouped.computeIfAbsent(key, name -> new Result(name(result.key1, result.key2, result.key3)));
+            computed.elapsed += result.elapsed;
+            computed.total += result.total;
+            computed.count += result.count;
+            computed.times.merge(result.times);
+        }
 
-                System.out.format(format, result.name, result.elapsed / 1000000, result.elapsed / total * 100, result.count);
+        // take the percentile snapshot only once for sorting and formatting
+        for (Result computed : grouped.values()) {
+            computed.p99 = computed.times.percentile(99);
+        }
+        return new ArrayList(grouped.values());
+    }
+
+    /**
+     * Build the human readable text.
+     * 
+     * @param total The total profiled time. (unit: ns)
+     * @param rows The rows to show.
+     * @return The report text.
+     */
+    private String text(double total, List<Result> rows) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Total Profiled Time: %-6.0fms%n", total / 1000000));
+
+        if (!rows.isEmpty()) {
+            String name = max(rows, v -> v.name, true);
+            String time = max(rows, v -> String.valueOf(v.elapsed / 1000000), false);
+            String inclusive = max(rows, v -> String.valueOf(v.total / 1000000), false);
+            String count = max(rows, v -> String.valueOf(v.count), false);
+            String format = name + "  " + time + "ms  %3.0f%%  total " + inclusive + "ms  mean %.3fms  p99 %.3fms  " + count + "count%n";
+
+            for (Result row : rows) {
+                builder.append(String.format(format, row.name, row.elapsed / 1000000, total == 0 ? 0 : row.elapsed / total * 100, row.total / 1000000, row.times
+                        .mean() / 1000000, row.p99 / 1000000d, row.count));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write JSON string literal.
+     * 
+     * @param builder An output.
+     * @param text A text to quote.
+     */
+    private static void quote(StringBuilder builder, String text) {
+        if (text == null) {
+            builder.append("null");
+            return;
+        }
+
+        builder.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            switch (c) {
+            case '"':
+            case '\\':
+                builder.append('\\').append(c);
+                break;
+
+            default:
+                if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
             }
         }
+        builder.append('"');
     }
 
     /**
@@ -263,7 +333,203 @@ public class Profiler<K, E, Y> {
      * @return
      */
     private String max(List<Result> list, Function<Result, String> value, boolean left) {
-        return "%" + (left ? "-" : "") + list.stream().map(value).max(Comparator.comparingInt(v -> v.length())).get().length() + "s";
+        return "%" + (left ? "-" : "") + list.stream().map(value).mapToInt(String::length).max().orElse(1) + "s";
+    }
+
+    /**
+     * The sort order of report.
+     */
+    public enum Order {
+        /** Sort by the time including the nested phases. */
+        Total(result -> (double) result.total),
+
+        /** Sort by the time excluding the nested phases. */
+        Exclusive(result -> (double) result.elapsed),
+
+        /** Sort by the mean time per call. */
+        Mean(result -> result.times.mean()),
+
+        /** Sort by the call count. */
+        Count(result -> (double) result.count),
+
+        /** Sort by the 99th percentile time per call. */
+        P99(result -> (double) result.p99);
+
+        /** The sort key extractor. */
+        private final ToDoubleFunction<Profiler.Result> key;
+
+        /**
+         * @param key
+         */
+        private Order(ToDoubleFunction<Profiler.Result> key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Configurable report of the profiling results.
+     */
+    public class Report {
+
+        /** The sort order. */
+        private Order order = Order.Exclusive;
+
+        /** The maximum number of rows. (zero or negative means unlimited) */
+        private int top;
+
+        /** The minimum percentage of exclusive time to show. */
+        private double min;
+
+        /**
+         * Hide constructor.
+         */
+        private Report() {
+        }
+
+        /**
+         * Configure the sort order. (descending)
+         * 
+         * @param order A sort order.
+         * @return Chainable API.
+         */
+        public Report sortBy(Order order) {
+            this.order = Objects.requireNonNull(order);
+            return this;
+        }
+
+        /**
+         * Limit the number of rows.
+         * 
+         * @param size The maximum number of rows. Zero or negative value means unlimited.
+         * @return Chainable API.
+         */
+        public Report top(int size) {
+            this.top = size;
+            return this;
+        }
+
+        /**
+         * Show all rows.
+         * 
+         * @return Chainable API.
+         */
+        public Report all() {
+            return top(0);
+        }
+
+        /**
+         * Hide the rows whose exclusive time is less than the specified percentage of total time.
+         * 
+         * @param percentage A minimum percentage. (0 - 100)
+         * @return Chainable API.
+         */
+        public Report minPercentage(double percentage) {
+            this.min = percentage;
+            return this;
+        }
+
+        /**
+         * Compute the total profiled time.
+         * 
+         * @return The total profiled time. (unit: ns)
+         */
+        public long total() {
+            long total = 0;
+            for (Result result : results.values()) {
+                total += result.elapsed;
+            }
+            return total;
+        }
+
+        /**
+         * Compute the rows of this report.
+         * 
+         * @return The filtered and sorted rows.
+         */
+        public List<Result> rows() {
+            long total = total();
+            List<Result> rows = grouped();
+            rows.removeIf(row -> row.elapsed == 0 || (total != 0 && row.elapsed * 100d / total < min));
+
+            // compute the sort key only once per row
+            Map<Result, Double> keys = new HashMap();
+            for (Result row : rows) {
+                keys.put(row, order.key.applyAsDouble(row));
+            }
+            rows.sort(Comparator.<Result> comparingDouble(keys::get).reversed());
+
+            return 0 < top && top < rows.size() ? rows.subList(0, top) : rows;
+        }
+
+        /**
+         * Build the report as human readable text.
+         * 
+         * @return The report text.
+         */
+        public String text() {
+            return Profiler.this.text(total(), rows());
+        }
+
+        /**
+         * Build the report as JSON.
+         * 
+         * @return The report JSON.
+         */
+        public String json() {
+            long total = total();
+            StringBuilder builder = new StringBuilder("{\"total\":").append(total).append(",\"results\":[");
+            List<Result> rows = rows();
+
+            for (int i = 0; i < rows.size(); i++) {
+                Result row = rows.get(i);
+
+                if (i != 0) builder.append(',');
+                builder.append("{\"name\":");
+                quote(builder, row.name);
+                builder.append(",\"exclusive\":").append(row.elapsed);
+                builder.append(",\"total\":").append(row.total);
+                builder.append(",\"mean\":").append(Math.round(row.times.mean()));
+                builder.append(",\"p99\":").append(row.p99);
+                builder.append(",\"count\":").append(row.count);
+                builder.append(",\"percentage\":").append(total == 0 ? 0 : row.elapsed * 100d / total);
+                builder.append('}');
+            }
+            return builder.append("]}").toString();
+        }
+
+        /**
+         * Write the report as human readable text to the specified file.
+         * 
+         * @param file A destination file.
+         */
+        public void text(Path file) {
+            write(file, text());
+        }
+
+        /**
+         * Write the report as JSON to the specified file.
+         * 
+         * @param file A destination file.
+         */
+        public void json(Path file) {
+            write(file, json());
+        }
+
+        /**
+         * Helper method to write file.
+         * 
+         * @param file A destination file.
+         * @param text A contents.
+         */
+        private void write(Path file, String text) {
+            try {
+                Path parent = file.toAbsolutePath().getParent();
+                if (parent != null) Files.createDirectories(parent);
+                Files.writeString(file, text);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+        }
     }
 
     /**
@@ -300,6 +566,18 @@ public class Profiler<K, E, Y> {
         /** The call count. */
         protected long count;
 
+        /** The elapsed time of the specified phase including the nested phases. */
+        protected long total;
+
+        /** The time distribution per call including the nested phases. */
+        protected final Histogram times = new Histogram();
+
+        /** The 99th percentile time per call, it is computed once when the results are grouped. */
+        protected long p99;
+
+        /** The entered time of the current call. */
+        private long entered;
+
         /**
          * @param name
          */
@@ -337,6 +615,23 @@ public class Profiler<K, E, Y> {
             elapsed += end - latest;
         }
 
+        /**
+         * Begin the new call.
+         */
+        private void enter() {
+            start();
+            entered = latest;
+        }
+
+        /**
+         * End the current call.
+         */
+        private void exit() {
+            long time = end - entered;
+            total += time;
+            times.record(time);
+        }
+
         /**
          * {@inheritDoc}
          */
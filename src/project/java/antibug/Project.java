@@ -27,4 +27,24 @@ public class Project extends bee.api.Project {
 
         versionControlSystem("https://github.com/teletha/antibug");
     }
+
+    /**
+     * Declare the java agent entry points in the manifest of product jar. PowerAssert translates
+     * eagerly by <code>-javaagent:antibug.jar</code> and <code>antibug.bytecode.Agent</code> holds the
+     * instrumentation of dynamic attach.
+     */
+    public static class Jar extends bee.task.Jar {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void source() {
+            project.getClasses()
+                    .file("META-INF/MANIFEST.MF")
+                    .text("Manifest-Version: 1.0", "Premain-Class: antibug.powerassert.PowerAssert", "Agent-Class: antibug.bytecode.Agent", "Can-Redefine-Classes: true", "Can-Retransform-Classes: true", "");
+
+            super.source();
+        }
+    }
 }
\ No newline at end of file
@@ -9,8 +9,16 @@
  */
 package antibug;
 
+import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,6 +29,8 @@ public class ChronusTest {
 
     public final Chronus chronus = new Chronus();
 
+    public final Chronus virtual = Chronus.virtual();
+
     /** The test result. */
     private static AtomicInteger value = new AtomicInteger();
 
@@ -94,4 +104,485 @@ public class ChronusTest {
 
         assert 100 <= end - start;
     }
+
+    @Test
+    void virtualSchedule() {
+        long start = System.nanoTime();
+
+        virtual.schedule(createTask(), 10, SECONDS);
+        virtual.schedule(createTask(), 20, SECONDS);
+        virtual.schedule(createTask(), 30, SECONDS);
+        assert value.get() == 0;
+
+        virtual.advance(15, SECONDS);
+        assert value.get() == 1;
+
+        virtual.advance(5, SECONDS);
+        assert value.get() == 2;
+
+        virtual.advance(10, SECONDS);
+        assert value.get() == 3;
+        assert System.nanoTime() - start < SECONDS.toNanos(1);
+    }
+
+    @Test
+    void virtualOrder() {
+        List<String> order = new ArrayList();
+
+        virtual.schedule(() -> order.add("C"), 30, MILLISECONDS);
+        virtual.schedule(() -> order.add("A"), 10, MILLISECONDS);
+        virtual.schedule(() -> {
+            order.add("B");
+            // scheduled in task, it is due before the target instant
+            virtual.schedule(() -> order.add("B2"), 5, MILLISECONDS);
+        }, 20, MILLISECONDS);
+        virtual.schedule(() -> order.add("A2"), 10, MILLISECONDS);
+
+        virtual.advance(1, SECONDS);
+        assert order.equals(List.of("A", "A2", "B", "B2", "C"));
+    }
+
+    @Test
+    void virtualElapse() {
+        virtual.mark();
+        virtual.schedule(createTask(), 100, MILLISECONDS);
+
+        virtual.within(100, MILLISECONDS, () -> {
+            assert value.get() == 0;
+        });
+
+        virtual.elapse(100, MILLISECONDS);
+        assert value.get() == 1;
+
+        AtomicInteger called = new AtomicInteger();
+        virtual.within(100, MILLISECONDS, called::incrementAndGet);
+        assert called.get() == 0;
+    }
+
+    @Test
+    void virtualAwait() {
+        virtual.submit(createTask());
+        virtual.schedule(createTask(), 2, SECONDS);
+        assert value.get() == 0;
+
+        virtual.await();
+        assert value.get() == 2;
+    }
+
+    @Test
+    void virtualCancel() {
+        ScheduledFuture<?> future = virtual.schedule(createTask(), 1, SECONDS);
+        assert future.cancel(false);
+
+        virtual.advance(2, SECONDS);
+        assert value.get() == 0;
+        virtual.await();
+    }
+
+    @Test
+    void virtualInfiniteDelay() {
+        virtual.schedule(createTask(), Long.MAX_VALUE, DAYS);
+        virtual.schedule(createTask(), 1, SECONDS);
+
+        virtual.advance(2, SECONDS);
+        assert value.get() == 1;
+
+        virtual.advance(Long.MAX_VALUE, DAYS);
+        assert value.get() == 2;
+        assert virtual.nanoTime() == Long.MAX_VALUE;
+    }
+
+    @Test
+    void virtualInfinitePeriod() {
+        virtual.scheduleAtFixedRate(createTask(), 1, Long.MAX_VALUE, NANOSECONDS);
+
+        virtual.advance(1, SECONDS);
+        assert value.get() == 1;
+
+        // the next execution is saturated at the end of time
+        virtual.advance(Long.MAX_VALUE, DAYS);
+        assert value.get() == 1;
+    }
+
+    @Test
+    void virtualFixedDelay() {
+        ScheduledFuture<?> future = virtual.scheduleWithFixedDelay(createTask(), 10, 10, SECONDS);
+
+        virtual.advance(1, TimeUnit.MINUTES);
+        assert value.get() == 6;
+        future.cancel(false);
+    }
+
+    @Test
+    void awaitWakesUpOnCompletion() {
+        long total = 0;
+
+        for (int i = 0; i < 20; i++) {
+            long[] done = new long[1];
+            chronus.submit(() -> {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new Error(e);
+                }
+                done[0] = System.nanoTime();
+            });
+            chronus.await();
+            total += System.nanoTime() - done[0];
+        }
+
+        // polling by 10ms sleep takes 5ms on average
+        assert total / 20 < MILLISECONDS.toNanos(3);
+    }
+
+    @Test
+    void awaitLimit() {
+        chronus.configAwaitLimit(50, MILLISECONDS);
+        chronus.schedule(createTask(), 10, SECONDS);
+
+        long start = System.nanoTime();
+        try {
+            chronus.await();
+            throw new AssertionError("unreachable");
+        } catch (Error e) {
+            assert e.getMessage().startsWith("Task can't exceed 50ms.");
+        }
+        assert System.nanoTime() - start < SECONDS.toNanos(1);
+    }
+
+    @Test
+    void manyTasks() {
+        for (int i = 0; i < 100000; i++) {
+            chronus.execute(value::incrementAndGet);
+        }
+        chronus.await();
+        assert value.get() == 100000;
+    }
+
+    @Test
+    void virtualManyTasks() {
+        for (int i = 0; i < 100000; i++) {
+            virtual.schedule(value::incrementAndGet, i % 100, MILLISECONDS);
+        }
+        virtual.await();
+        assert value.get() == 100000;
+    }
+
+    @Test
+    void awaitLimitDescribesRemainingTasks() {
+        chronus.configAwaitLimit(10, MILLISECONDS);
+        for (int i = 0; i < 20; i++) {
+            chronus.schedule(createTask(), 10, SECONDS);
+        }
+
+        try {
+            chronus.await();
+            throw new AssertionError("unreachable");
+        } catch (Error e) {
+            assert e.getMessage().contains("Remaining tasks are 20.");
+            assert e.getMessage().contains("… 10 more");
+        }
+
+        // the remaining tasks are forgotten
+        chronus.await();
+    }
+
+    @Test
+    void executeFromManyThreads() throws Exception {
+        AtomicInteger built = new AtomicInteger();
+        Chronus chronus = new Chronus(() -> {
+            built.incrementAndGet();
+            return Executors.newScheduledThreadPool(2);
+        });
+
+        int producers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList();
+        for (int i = 0; i < producers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new Error(e);
+                }
+                for (int j = 0; j < 1000; j++) {
+                    chronus.execute(value::incrementAndGet);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        chronus.await();
+
+        assert value.get() == producers * 1000;
+        assert built.get() == 1;
+        chronus.shutdown();
+    }
+
+    @Test
+    void threadPerTask() {
+        Chronus chronus = Chronus.threadPerTask();
+        CountDownLatch gate = new CountDownLatch(1);
+        int clients = 1000;
+
+        // all clients block until the last one arrives, so a bounded pool would deadlock
+        CountDownLatch arrived = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            chronus.execute(() -> {
+                arrived.countDown();
+                try {
+                    arrived.await();
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new Error(e);
+                }
+                value.incrementAndGet();
+            });
+        }
+        chronus.schedule(gate::countDown, 10, MILLISECONDS);
+        chronus.await();
+
+        assert value.get() == clients;
+        chronus.shutdown();
+    }
+
+    @Test
+    void threadPerTaskFixedRateNeverOverlaps() throws Exception {
+        Chronus chronus = Chronus.threadPerTask();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlapped = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(4);
+
+        ScheduledFuture<?> future = chronus.scheduleAtFixedRate(() -> {
+            if (running.incrementAndGet() != 1) {
+                overlapped.incrementAndGet();
+            }
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            }
+            running.decrementAndGet();
+            latch.countDown();
+        }, 0, 5, MILLISECONDS);
+
+        assert latch.await(1, SECONDS);
+        future.cancel(false);
+        assert overlapped.get() == 0;
+        chronus.await();
+        chronus.shutdown();
+    }
+
+    @Test
+    void threadPerTaskFixedRateFailure() throws Exception {
+        Chronus chronus = Chronus.threadPerTask();
+        ScheduledFuture<?> future = chronus.scheduleAtFixedRate(() -> {
+            if (value.incrementAndGet() == 2) {
+                throw new IllegalStateException();
+            }
+        }, 0, 5, MILLISECONDS);
+
+        chronus.await();
+        Thread.sleep(30);
+        assert future.isDone();
+        assert value.get() == 2;
+        chronus.shutdown();
+    }
+
+    @Test
+    void threadPerTaskFixedDelayFromCompletion() throws Exception {
+        Chronus chronus = Chronus.threadPerTask();
+        List<Long> starts = new ArrayList();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        ScheduledFuture<?> future = chronus.scheduleWithFixedDelay(() -> {
+            starts.add(System.nanoTime());
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            }
+            latch.countDown();
+        }, 0, 10, MILLISECONDS);
+
+        assert latch.await(1, SECONDS);
+        future.cancel(false);
+
+        // the run time (20ms) and the delay (10ms)
+        for (int i = 1; i < 3; i++) {
+            assert MILLISECONDS.toNanos(30) <= starts.get(i) - starts.get(i - 1);
+        }
+        chronus.await();
+        chronus.shutdown();
+    }
+
+    @Test
+    void threadPerTaskCancel() {
+        Chronus chronus = Chronus.threadPerTask();
+        ScheduledFuture<?> future = chronus.schedule(createTask(), 10, SECONDS);
+        assert 0 < future.getDelay(MILLISECONDS);
+        assert future.cancel(false);
+        assert future.isCancelled();
+        chronus.await();
+        chronus.shutdown();
+    }
+
+    @Test
+    void virtualFixedRateCancel() {
+        ScheduledFuture<?> future = virtual.scheduleAtFixedRate(createTask(), 10, 10, SECONDS);
+
+        virtual.advance(35, SECONDS);
+        assert value.get() == 3;
+
+        // the handle cancels all subsequent executions
+        assert future.cancel(false);
+        virtual.advance(1, TimeUnit.MINUTES);
+        assert value.get() == 3;
+        virtual.await();
+    }
+
+    @Test
+    void virtualFixedRateCatchUp() {
+        ScheduledFuture<?> future = virtual.scheduleAtFixedRate(overrun(), 10, 10, MILLISECONDS, Chronus.Overrun.CatchUp);
+
+        virtual.advance(100, MILLISECONDS);
+        assert value.get() == 10;
+        future.cancel(false);
+    }
+
+    @Test
+    void virtualFixedRateSkip() {
+        ScheduledFuture<?> future = virtual.scheduleAtFixedRate(overrun(), 10, 10, MILLISECONDS, Chronus.Overrun.Skip);
+
+        // the executions at 20ms and 30ms are skipped
+        virtual.advance(100, MILLISECONDS);
+        assert value.get() == 8;
+        future.cancel(false);
+    }
+
+    /**
+     * Create the task which overruns 35ms at first execution.
+     */
+    private Runnable overrun() {
+        return () -> {
+            if (value.getAndIncrement() == 0) {
+                virtual.advance(35, MILLISECONDS);
+            }
+        };
+    }
+
+    @Test
+    void fixedRateIsAccurate() throws Exception {
+        CountDownLatch latch = new CountDownLatch(500);
+        long start = System.nanoTime();
+        ScheduledFuture<?> future = chronus.scheduleAtFixedRate(latch::countDown, 200, 200, TimeUnit.MICROSECONDS);
+
+        assert latch.await(1, SECONDS);
+        long elapsed = System.nanoTime() - start;
+        future.cancel(false);
+
+        assert TimeUnit.MICROSECONDS.toNanos(500 * 200) <= elapsed;
+        assert elapsed < MILLISECONDS.toNanos(300);
+        chronus.await();
+    }
+
+    @Test
+    void fixedRateFailure() {
+        ScheduledFuture<?> future = virtual.scheduleAtFixedRate(() -> {
+            if (value.incrementAndGet() == 2) {
+                throw new IllegalStateException();
+            }
+        }, 10, 10, MILLISECONDS);
+
+        virtual.advance(100, MILLISECONDS);
+        assert value.get() == 2;
+        assert future.isDone();
+        virtual.await();
+    }
+
+    @Test
+    void preciseWait() {
+        for (int i = 0; i < 50; i++) {
+            chronus.await(300, TimeUnit.MICROSECONDS);
+        }
+        assert chronus.overshoot().count() == 50;
+
+        // sleeping overshoots by 50µs or more
+        assert chronus.overshoot().percentile(50) < TimeUnit.MICROSECONDS.toNanos(20);
+    }
+
+    @Test
+    void preciseElapse() {
+        chronus.mark();
+        chronus.elapse(50, MILLISECONDS);
+        chronus.elapse(100, MILLISECONDS);
+        assert chronus.overshoot().count() == 2;
+    }
+
+    @Test
+    void parkOnly() {
+        chronus.configSpinThreshold(0, MILLISECONDS);
+
+        long start = System.nanoTime();
+        chronus.await(1, MILLISECONDS);
+        assert MILLISECONDS.toNanos(1) <= System.nanoTime() - start;
+    }
+
+    @Test
+    void metrics() {
+        virtual.execute(createTask());
+        virtual.schedule(() -> virtual.advance(5, MILLISECONDS), 10, MILLISECONDS);
+        virtual.await();
+
+        assert virtual.queueDelay().count() == 1;
+        assert virtual.lateness().count() == 1;
+        assert virtual.lateness().max() == 0;
+        assert virtual.runTime().count() == 2;
+        assert virtual.runTime().max() == MILLISECONDS.toNanos(5);
+    }
+
+    @Test
+    void metricsOfFixedRate() {
+        ScheduledFuture<?> future = virtual.scheduleAtFixedRate(overrun(), 10, 10, MILLISECONDS);
+        virtual.advance(100, MILLISECONDS);
+        future.cancel(false);
+
+        // the catching up executions are late
+        assert virtual.lateness().count() == 10;
+        assert virtual.lateness().max() == MILLISECONDS.toNanos(25);
+    }
+
+    @Test
+    void dumpSlowestTasks() {
+        chronus.configAwaitLimit(100, MILLISECONDS);
+        CountDownLatch blocker = new CountDownLatch(1);
+        chronus.execute(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            }
+        });
+        chronus.schedule(createTask(), 10, SECONDS);
+
+        try {
+            chronus.await();
+            throw new AssertionError("unreachable");
+        } catch (Error e) {
+            String message = e.getMessage();
+            assert message.contains("run time (ns)");
+
+            // the blocked task is the slowest
+            int running = message.indexOf("running ");
+            int waiting = message.indexOf("waiting ");
+            assert 0 < running && running < waiting;
+            assert message.contains("(due in ");
+        } finally {
+            blocker.countDown();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelSchedulerTest {
+
+    private final TimingWheelScheduler scheduler = new TimingWheelScheduler(1, MILLISECONDS);
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void schedule() throws Exception {
+        long start = System.nanoTime();
+        ScheduledFuture<Long> future = scheduler.schedule(System::nanoTime, 20, MILLISECONDS);
+
+        assert start + MILLISECONDS.toNanos(20) <= future.get(1, SECONDS);
+    }
+
+    @Test
+    void notBeforeDeadline() throws Exception {
+        // the fine tick makes the tasks cascade down through several levels
+        TimingWheelScheduler scheduler = new TimingWheelScheduler(10, MICROSECONDS);
+        Random random = new Random(46);
+        int size = 500;
+        CountDownLatch latch = new CountDownLatch(size);
+        AtomicInteger early = new AtomicInteger();
+        AtomicLong latest = new AtomicLong();
+
+        for (int i = 0; i < size; i++) {
+            long delay = random.nextInt(300_000);
+            long deadline = System.nanoTime() + MICROSECONDS.toNanos(delay);
+
+            scheduler.schedule(() -> {
+                long now = System.nanoTime();
+                if (now < deadline) {
+                    early.incrementAndGet();
+                }
+                latest.accumulateAndGet(now - deadline, Math::max);
+                latch.countDown();
+            }, delay, MICROSECONDS);
+        }
+
+        assert latch.await(5, SECONDS);
+        assert early.get() == 0;
+        assert latest.get() < MILLISECONDS.toNanos(200);
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void infiniteDelay() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> never = scheduler.schedule(count::incrementAndGet, Long.MAX_VALUE, MILLISECONDS);
+        ScheduledFuture<?> executed = scheduler.schedule(count::incrementAndGet, 20, MILLISECONDS);
+
+        executed.get(1, SECONDS);
+        Thread.sleep(50);
+        assert count.get() == 1;
+        assert !never.isDone();
+        assert DAYS.toNanos(365 * 100) < never.getDelay(NANOSECONDS);
+    }
+
+    @Test
+    void infinitePeriod() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        scheduler.scheduleAtFixedRate(count::incrementAndGet, 0, Long.MAX_VALUE, MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(count::incrementAndGet, 0, Long.MAX_VALUE, MILLISECONDS);
+
+        Thread.sleep(100);
+        assert count.get() == 2;
+    }
+
+    @Test
+    void cancel() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> cancelled = scheduler.schedule(count::incrementAndGet, 20, MILLISECONDS);
+        ScheduledFuture<?> executed = scheduler.schedule(count::incrementAndGet, 40, MILLISECONDS);
+
+        assert cancelled.cancel(false);
+        executed.get(1, SECONDS);
+        assert count.get() == 1;
+    }
+
+    @Test
+    void manyPendingTimeouts() throws Exception {
+        List<ScheduledFuture<?>> futures = new ArrayList();
+        for (int i = 0; i < 1_000_000; i++) {
+            futures.add(scheduler.schedule(() -> {
+            }, 10 + i % 1000, SECONDS));
+        }
+        for (ScheduledFuture<?> future : futures) {
+            assert future.cancel(false);
+        }
+
+        // the timer is still responsive
+        assert scheduler.schedule(() -> "ok", 5, MILLISECONDS).get(1, SECONDS).equals("ok");
+    }
+
+    @Test
+    void fixedRate() throws Exception {
+        CountDownLatch latch = new CountDownLatch(5);
+        ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(latch::countDown, 0, 5, MILLISECONDS);
+
+        assert latch.await(1, SECONDS);
+        assert future.cancel(false);
+        assert future.isCancelled();
+    }
+
+    @Test
+    void fixedDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(5);
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(latch::countDown, 0, 5, MILLISECONDS);
+
+        assert latch.await(1, SECONDS);
+        assert future.cancel(false);
+    }
+
+    @Test
+    void shutdownCancelsPendingTasks() throws Exception {
+        ScheduledFuture<?> future = scheduler.schedule(() -> {
+        }, 10, SECONDS);
+
+        scheduler.shutdown();
+        assert scheduler.awaitTermination(1, SECONDS);
+        assert future.isCancelled();
+    }
+
+    @Test
+    void chronus() {
+        Chronus chronus = Chronus.timingWheel(1, MILLISECONDS);
+        AtomicInteger count = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            chronus.schedule(count::incrementAndGet, i % 10, MILLISECONDS);
+        }
+        chronus.await();
+        assert count.get() == 100;
+        chronus.shutdownNow();
+    }
+}
\ No newline at end of file
@@ -12,9 +12,23 @@ package antibug.bytecode;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import antibug.bytecode.Agent.Translator;
+import net.bytebuddy.jar.asm.ClassWriter;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+
 /**
  * @version 2018/03/31 3:13:55
  */
@@ -37,6 +51,311 @@ public class AgentTest {
         assert called;
     }
 
+    @Test
+    public void localVariableName() {
+        new Agent(NameCollector.class).transform(Sample.class);
+
+        assert NameCollector.names.contains("local");
+        assert NameCollector.names.contains("parameter");
+    }
+
+    @Test
+    public void transformCollection() {
+        new Agent(ClassCollector.class).transform(Arrays.asList(First.class, null, int.class, String[].class, Second.class));
+
+        assert ClassCollector.names.contains("antibug/bytecode/AgentTest$First");
+        assert ClassCollector.names.contains("antibug/bytecode/AgentTest$Second");
+        assert Agent.getTransformedCode(First.class) != null;
+        assert Agent.getTransformedCode(Second.class) != null;
+    }
+
+    @Test
+    public void transformArray() {
+        new Agent(ClassCollector.class).transform(Third.class, Fourth.class);
+
+        assert ClassCollector.names.contains("antibug/bytecode/AgentTest$Third");
+        assert ClassCollector.names.contains("antibug/bytecode/AgentTest$Fourth");
+        assert Agent.getTransformedCode(Third.class) != null;
+        assert Agent.getTransformedCode(Fourth.class) != null;
+    }
+
+    @Test
+    public void transformWithBrokenNestMember() throws Exception {
+        Class host = brokenNestHost();
+        assert host.getNestMembers().length == 1;
+
+        new Agent(ClassCollector.class).transform(host, Fifth.class);
+
+        assert ClassCollector.names.contains("antibug/bytecode/BrokenHost");
+        assert ClassCollector.names.contains("antibug/bytecode/AgentTest$Fifth");
+        assert Agent.getTransformedCode(host) != null;
+        assert Agent.getTransformedCode(Fifth.class) != null;
+    }
+
+    @Test
+    public void filter() {
+        List<String> translated = new CopyOnWriteArrayList();
+        new Agent(ClassCollector.class, (name, bytes) -> name.equals("antibug/bytecode/FilterTarget"), translated::add);
+
+        // load class
+        new FilterTarget();
+
+        assert translated.equals(List.of("antibug/bytecode/FilterTarget"));
+        assert ClassCollector.names.contains("antibug/bytecode/FilterTarget");
+    }
+
+    @Test
+    public void filterWithFailedTranslation() {
+        List<String> translated = new CopyOnWriteArrayList();
+        new Agent(FailingTranslator.class, (name, bytes) -> name.equals("antibug/bytecode/FailureTarget"), translated::add);
+
+        // the class is loaded without translation
+        new FailureTarget();
+
+        assert translated.isEmpty();
+    }
+
+    @Test
+    public void restoreRecords() throws Exception {
+        byte[] bytes = Sample.class.getResourceAsStream("AgentTest$Sample.class").readAllBytes();
+        List<String[]> records = new ArrayList();
+        Agent.translate(bytes, RecordTranslator.class, Sample.class.getClassLoader(), records);
+
+        assert RecordTranslator.visits == 1;
+        assert RecordTranslator.restored.contains("compute(I)I");
+
+        // restore the encoded records without translation
+        RecordTranslator.restored.clear();
+        Agent.restore(Agent.decode(Agent.encode(records)), RecordTranslator.class);
+
+        assert RecordTranslator.visits == 1;
+        assert RecordTranslator.restored.contains("compute(I)I");
+    }
+
+    @Test
+    public void transformedCodeOfUntransformedClass() {
+        assert Agent.getTransformedCode(Untransformed.class) == null;
+        assert Agent.getTransformedCode(String.class) == null;
+    }
+
+    @Test
+    public void transformAndLookupConcurrently() throws Exception {
+        Class[] targets = {Concurrent1.class, Concurrent2.class, Concurrent3.class, Concurrent4.class};
+        Agent agent = new Agent(ClassCollector.class);
+        ExecutorService executor = Executors.newFixedThreadPool(targets.length * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future> futures = new ArrayList();
+
+        try {
+            for (Class target : targets) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    agent.transform(target);
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 10000; i++) {
+                        Agent.getTransformedCode(target);
+                        assert Agent.getTransformedCode(Untransformed.class) == null;
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            for (Future future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Class target : targets) {
+            assert Agent.getTransformedCode(target) != null;
+        }
+    }
+
+    /**
+     * Define the nest host class whose nest member can't be loaded.
+     * 
+     * @return The nest host class.
+     */
+    public static Class brokenNestHost() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "antibug/bytecode/BrokenHost", null, "java/lang/Object", null);
+        writer.visitNestMember("antibug/bytecode/BrokenHost$Missing");
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+        writer.visitEnd();
+
+        byte[] bytes = writer.toByteArray();
+
+        return new ClassLoader(AgentTest.class.getClassLoader()) {
+
+            private Class define() {
+                return defineClass("antibug.bytecode.BrokenHost", bytes, 0, bytes.length);
+            }
+
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                throw new IllegalStateException("The nest member [" + name + "] is broken.");
+            }
+        }.define();
+    }
+
+    /**
+     * Target classes.
+     */
+    private static class First {
+    }
+
+    private static class Second {
+    }
+
+    private static class Third {
+    }
+
+    private static class Fourth {
+    }
+
+    private static class Fifth {
+    }
+
+    private static class Untransformed {
+    }
+
+    private static class Concurrent1 {
+    }
+
+    private static class Concurrent2 {
+    }
+
+    private static class Concurrent3 {
+    }
+
+    private static class Concurrent4 {
+    }
+
+    /**
+     * Collect the translated class names.
+     */
+    private static class ClassCollector extends Translator {
+
+        private static final List<String> names = new CopyOnWriteArrayList();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            register(className);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void restore(String... record) {
+            names.add(record[0]);
+        }
+    }
+
+    /**
+     * Translator which fails on {@link FailureTarget}. The registered agent remains and also
+     * translates the classes which are redefined by the other tests.
+     */
+    private static class FailingTranslator extends Translator {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitCode() {
+            if (className.equals("antibug/bytecode/FailureTarget")) {
+                throw new IllegalStateException("The translation fails intentionally.");
+            }
+        }
+    }
+
+    /**
+     * Register the translated method names.
+     */
+    private static class RecordTranslator extends Translator {
+
+        private static final List<String> restored = new CopyOnWriteArrayList();
+
+        private static int visits;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitCode() {
+            super.visitCode();
+
+            if (methodName.equals("compute")) {
+                visits++;
+                register(methodName, methodType.getDescriptor());
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void restore(String... record) {
+            restored.add(record[0] + record[1]);
+        }
+    }
+
+    /**
+     * Target class.
+     */
+    private static class Sample {
+
+        @SuppressWarnings("unused")
+        private static int compute(int parameter) {
+            int local = parameter * 2;
+            return local + 1;
+        }
+    }
+
+    /**
+     * Collect the accessed local variable names.
+     */
+    private static class NameCollector extends Translator {
+
+        private static final List<String> names = new CopyOnWriteArrayList();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void visitVarInsn(int opcode, int index) {
+            super.visitVarInsn(opcode, index);
+
+            if (opcode == Opcodes.ILOAD) {
+                register(getLocalName(index));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void restore(String... record) {
+            names.add(record[0]);
+        }
+    }
+
     /**
      * @version 2012/01/02 11:17:34
      */
@@ -52,4 +371,17 @@ public class AgentTest {
             return classfileBuffer;
         }
     }
+}
+
+/**
+ * The class which is loaded by the test only, it is out of the nest of test class because JUnit
+ * loads all nested classes when it discovers tests.
+ */
+class FilterTarget {
+}
+
+/**
+ * The class which is loaded by the test only.
+ */
+class FailureTarget {
 }
\ No newline at end of file
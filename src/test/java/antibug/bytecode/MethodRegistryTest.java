@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.bytecode;
+
+import org.junit.jupiter.api.Test;
+
+class MethodRegistryTest {
+
+    @Test
+    void same() {
+        int id = MethodRegistry.identify("test/Same", "method", "()V");
+
+        assert id == MethodRegistry.identify("test/Same", "method", "()V");
+        assert id == MethodRegistry.identify(new String("test/Same"), new String("method"), new String("()V"));
+    }
+
+    @Test
+    void dense() {
+        int first = MethodRegistry.identify("test/Dense", "first", "()V");
+        int second = MethodRegistry.identify("test/Dense", "second", "()V");
+
+        assert 0 <= first;
+        assert first != second;
+        assert first < MethodRegistry.size();
+        assert second < MethodRegistry.size();
+    }
+
+    @Test
+    void hashCollision() {
+        assert "Aa".hashCode() == "BB".hashCode();
+        assert MethodRegistry.identify("test/Collision", "Aa", "()V") != MethodRegistry.identify("test/Collision", "BB", "()V");
+    }
+}
\ No newline at end of file
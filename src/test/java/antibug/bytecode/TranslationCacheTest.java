@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.bytecode;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import antibug.CleanRoom;
+import antibug.bytecode.Agent.Translator;
+
+class TranslationCacheTest {
+
+    @RegisterExtension
+    CleanRoom room = new CleanRoom();
+
+    private static final byte[] original = {1, 2, 3};
+
+    private static final byte[] translated = {4, 5, 6};
+
+    @Test
+    void miss() {
+        TranslationCache cache = new TranslationCache(room.locateDirectory("cache"));
+        String key = cache.key(original, cache.version(Translator.class));
+
+        assert cache.read("test/Type", key, new ArrayList()) == null;
+    }
+
+    @Test
+    void hit() {
+        TranslationCache cache = new TranslationCache(room.locateDirectory("cache"));
+        String key = cache.key(original, cache.version(Translator.class));
+        cache.write("test/Type", key, translated, List.of());
+
+        assert Arrays.equals(cache.read("test/Type", key, new ArrayList()), translated);
+        assert Arrays.equals(new TranslationCache(room.locateDirectory("cache")).read("test/Type", key, new ArrayList()), translated);
+    }
+
+    @Test
+    void records() {
+        TranslationCache cache = new TranslationCache(room.locateDirectory("cache"));
+        String key = cache.key(original, cache.version(Translator.class));
+        cache.write("test/Type", key, translated, List.of(new String[] {"kind", "name", ""}, new String[] {"other"}));
+
+        List<String[]> records = new ArrayList();
+        assert new TranslationCache(room.locateDirectory("cache")).read("test/Type", key, records) != null;
+        assert records.size() == 2;
+        assert Arrays.equals(records.get(0), new String[] {"kind", "name", ""});
+        assert Arrays.equals(records.get(1), new String[] {"other"});
+    }
+
+    @Test
+    void recordsMissing() throws Exception {
+        Path directory = room.locateDirectory("cache");
+        TranslationCache cache = new TranslationCache(directory);
+        String key = cache.key(original, cache.version(Translator.class));
+        cache.write("test/Type", key, translated, List.of());
+
+        // the entry without records is incomplete
+        try (var files = Files.list(directory)) {
+            files.filter(file -> file.toString().endsWith(".records")).forEach(file -> file.toFile().delete());
+        }
+        assert cache.read("test/Type", key, new ArrayList()) == null;
+    }
+
+    @Test
+    void invalidateByBytecode() {
+        TranslationCache cache = new TranslationCache(room.locateDirectory("cache"));
+        String version = cache.version(Translator.class);
+        cache.write("test/Type", cache.key(original, version), translated, List.of());
+
+        assert cache.read("test/Type", cache.key(new byte[] {1, 2, 3, 4}, version), new ArrayList()) == null;
+    }
+
+    @Test
+    void invalidateByTranslator() {
+        TranslationCache cache = new TranslationCache(room.locateDirectory("cache"));
+        cache.write("test/Type", cache.key(original, cache.version(Translator.class)), translated, List.of());
+
+        assert cache.read("test/Type", cache.key(original, cache.version(Other.class)), new ArrayList()) == null;
+    }
+
+    @Test
+    void invalidateByPackageClass() throws Exception {
+        Path classes = room.locateDirectory("classes", dir -> {
+            dir.dir("test", () -> {
+                dir.file("Translator.class", "translator");
+                dir.file("Runtime.class", "runtime");
+            });
+        });
+        byte[] version = TranslationCache.source(classes, "test");
+
+        // modify the other class in the same package
+        Files.writeString(classes.resolve("test/Runtime.class"), "modified");
+        assert !Arrays.equals(TranslationCache.source(classes, "test"), version);
+    }
+
+    @Test
+    void invalidateByArchive() throws Exception {
+        Path jar = room.locateFile("translator.jar", "original");
+        byte[] version = TranslationCache.source(jar, "test");
+
+        Files.writeString(jar, "modified");
+        assert !Arrays.equals(TranslationCache.source(jar, "test"), version);
+    }
+
+    @Test
+    void prune() throws Exception {
+        Path directory = room.locateDirectory("cache");
+        TranslationCache cache = new TranslationCache(directory);
+        String version = cache.version(Translator.class);
+        String old = cache.key(original, version);
+        String latest = cache.key(new byte[] {1, 2, 3, 4}, version);
+
+        cache.write("test/Type", old, translated, List.of());
+        cache.write("test/Type$Inner", old, translated, List.of());
+        cache.write("test/Type", latest, translated, List.of());
+
+        assert cache.read("test/Type", old, new ArrayList()) == null;
+        assert cache.read("test/Type", latest, new ArrayList()) != null;
+        assert cache.read("test/Type$Inner", old, new ArrayList()) != null;
+        assert Files.list(directory).count() == 4;
+    }
+
+    @Test
+    void disabled() {
+        TranslationCache cache = new TranslationCache(null);
+
+        assert cache.version(Translator.class) == null;
+        assert cache.key(original, "version") == null;
+        assert cache.read("test/Type", null, new ArrayList()) == null;
+    }
+
+    /**
+     * Another translator.
+     */
+    private static class Other extends Translator {
+    }
+}
\ No newline at end of file
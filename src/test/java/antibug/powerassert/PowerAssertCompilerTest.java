@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import antibug.CleanRoom;
+
+public class PowerAssertCompilerTest {
+
+    @RegisterExtension
+    CleanRoom room = new CleanRoom();
+
+    @Test
+    void compile() throws Exception {
+        Path classes = room.locateDirectory("classes");
+        String name = Sample.class.getName().replace('.', '/') + ".class";
+        Path file = classes.resolve(name);
+        Files.createDirectories(file.getParent());
+
+        try (InputStream input = Sample.class.getClassLoader().getResourceAsStream(name)) {
+            Files.write(file, input.readAllBytes());
+        }
+
+        assert PowerAssertCompiler.compile(classes) == 1;
+        Path records = classes.resolve("META-INF/antibug/records/" + name.replace(".class", ".records"));
+        assert Files.readString(records).contains("local");
+
+        // translated class must not be translated again
+        assert PowerAssertCompiler.compile(classes) == 0;
+
+        try (ChildFirst loader = new ChildFirst(classes, Sample.class.getName())) {
+            Class<?> translated = loader.loadClass(Sample.class.getName());
+            assert translated != Sample.class;
+
+            try {
+                translated.getMethod("check", int.class).invoke(null, 1);
+                throw new AssertionError("Assertion must fail.");
+            } catch (InvocationTargetException e) {
+                Throwable error = e.getCause();
+
+                assert error instanceof PowerAssertionError;
+                assert error.getMessage().contains("local == 3");
+            }
+        }
+    }
+
+    /**
+     * Translation target.
+     */
+    public static class Sample {
+
+        public static void check(int value) {
+            int local = value * 2;
+            assert local == 3;
+        }
+    }
+
+    /**
+     * Load the specified class from the directory.
+     */
+    private static class ChildFirst extends URLClassLoader {
+
+        private final String name;
+
+        private ChildFirst(Path directory, String name) throws Exception {
+            super(new URL[] {directory.toUri().toURL()}, ChildFirst.class.getClassLoader());
+            this.name = name;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (this.name.equals(name)) {
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> loaded = findLoadedClass(name);
+                    return loaded != null ? loaded : findClass(name);
+                }
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
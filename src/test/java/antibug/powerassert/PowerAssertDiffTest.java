@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class PowerAssertDiffTest {
+
+    /**
+     * Helper to compute diff.
+     */
+    private static String diff(Object left, Object right) {
+        StringBuilder builder = new StringBuilder();
+        return PowerAssertDiff.diff(left, right, builder) ? builder.toString() : null;
+    }
+
+    @Test
+    void same() {
+        assert diff("text", "text") == null;
+        assert diff(List.of(1, 2), List.of(1, 2)) == null;
+        assert diff(new int[] {1}, new int[] {1}) == null;
+        assert diff(Map.of("a", 1), Map.of("a", 1)) == null;
+    }
+
+    @Test
+    void incomparable() {
+        assert diff("text", List.of("text")) == null;
+        assert diff(new int[] {1}, new long[] {1}) == null;
+        assert diff(null, "text") == null;
+    }
+
+    @Test
+    void incompatibleKeys() {
+        Map<Object, Integer> left = new TreeMap();
+        left.put("a", 1);
+        Map<Object, Integer> right = new TreeMap();
+        right.put(1, 1);
+
+        // TreeMap#containsKey throws ClassCastException
+        assert diff(left, right) == null;
+        assert diff(Set.copyOf(left.keySet()), new TreeSet(right.keySet())) == null;
+    }
+
+    @Test
+    void character() {
+        String diff = diff("abcdef", "abXdef");
+
+        assert diff.contains("ab[-c-]{+X+}def");
+    }
+
+    @Test
+    void characterContext() {
+        String diff = diff("a".repeat(100) + "b" + "a".repeat(100), "a".repeat(100) + "c" + "a".repeat(100));
+
+        assert diff.contains("…" + "a".repeat(20) + "[-b-]{+c+}" + "a".repeat(20) + "…");
+    }
+
+    @Test
+    void line() {
+        String left = "one\ntwo\nthree\nfour\nfive";
+        String right = "one\ntwo\nTHREE\nfour\nfive";
+        String diff = diff(left, right);
+
+        assert diff.contains("- [2] three");
+        assert diff.contains("+ [2] THREE");
+        assert diff.contains("  [1] two");
+        assert diff.contains("  [3] four");
+    }
+
+    @Test
+    void largeLines() {
+        List<String> left = IntStream.range(0, 50000).mapToObj(i -> "line " + i).collect(Collectors.toList());
+        List<String> right = new ArrayList(left);
+        right.set(31415, "changed");
+        right.remove(40000);
+
+        String diff = diff(String.join("\n", left), String.join("\n", right));
+
+        assert diff.contains("- [31415] line 31415");
+        assert diff.contains("+ [31415] changed");
+        assert diff.contains("- [40000] line 40000");
+        assert diff.contains("… 31,413 same");
+        assert diff.length() < 1000;
+    }
+
+    @Test
+    void list() {
+        String diff = diff(List.of(1, 2, 3, 4), List.of(1, 3, 4, 5));
+
+        assert diff.contains("- [1] 2");
+        assert diff.contains("+ [3] 5");
+    }
+
+    @Test
+    void map() {
+        Map<String, Integer> left = new TreeMap();
+        left.put("a", 1);
+        left.put("b", 2);
+        left.put("c", 3);
+
+        Map<String, Integer> right = new TreeMap();
+        right.put("a", 1);
+        right.put("b", 20);
+        right.put("d", 4);
+
+        String diff = diff(left, right);
+
+        assert diff.contains("~ \"b\" = 2 → 20");
+        assert diff.contains("- \"c\" = 3");
+        assert diff.contains("+ \"d\" = 4");
+        assert !diff.contains("\"a\"");
+    }
+
+    @Test
+    void set() {
+        String diff = diff(Set.of(1, 2), Set.of(2, 3));
+
+        assert diff.contains("- 1");
+        assert diff.contains("+ 3");
+    }
+
+    @Test
+    void array() {
+        int[] left = new int[100000];
+        int[] right = new int[100001];
+        right[777] = 7;
+
+        String diff = diff(left, right);
+
+        assert diff.contains("length 100,000 → 100,001");
+        assert diff.contains("~ [777] 0 → 7");
+        assert diff.contains("+ [100000] 0");
+    }
+
+    @Test
+    void manyChanges() {
+        int[] left = new int[1000];
+        int[] right = new int[1000];
+        for (int i = 0; i < right.length; i++) {
+            right[i] = i + 1;
+        }
+
+        String diff = diff(left, right);
+
+        assert diff.contains("… more changes");
+        assert diff.length() < 2000;
+    }
+
+    @Test
+    void timeLimit() {
+        // totally different sequences are the worst case
+        List<Integer> left = IntStream.range(0, 20000).boxed().collect(Collectors.toList());
+        List<Integer> right = IntStream.range(20000, 40000).boxed().collect(Collectors.toList());
+
+        long start = System.nanoTime();
+        String diff = diff(left, right);
+
+        assert diff.contains("- [0] 0");
+        assert diff.contains("… 39,950 more changes");
+        assert System.nanoTime() - start < 5_000_000_000L;
+    }
+
+    @Test
+    void manyCharacterChanges() {
+        String left = "a".repeat(1000);
+        String right = "ab".repeat(1000);
+
+        String diff = diff(left, right);
+
+        assert diff.contains("… 950 more changes");
+        assert diff.length() < 2000;
+    }
+
+    @Test
+    void largeCharacterChange() {
+        String left = "start " + "x".repeat(100000) + " end";
+        String right = "start " + "y".repeat(100000) + " end";
+
+        String diff = diff(left, right);
+
+        assert diff.contains("[-" + "x".repeat(200) + "…(99,800 more)-]");
+        assert diff.contains("{+" + "y".repeat(200) + "…(99,800 more)+}");
+        assert diff.length() < 1000;
+    }
+
+    @Test
+    void characterTimeLimit() {
+        Random random = new Random(1);
+        String left = random.ints(200000, 'a', 'z' + 1).collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString();
+        String right = random.ints(200000, 'a', 'z' + 1).collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString();
+
+        long start = System.nanoTime();
+        String diff = diff(left, right);
+
+        assert diff.endsWith("(diff is approximated because of time limit)");
+        assert diff.length() < 20000;
+        assert System.nanoTime() - start < 5_000_000_000L;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import antibug.CleanRoom;
+
+class PowerAssertPremainTest {
+
+    @RegisterExtension
+    CleanRoom room = new CleanRoom();
+
+    private static final String[] all = {};
+
+    @Test
+    void acceptUserClass() {
+        assert PowerAssert.accept("com/example/Type", all);
+        assert PowerAssert.accept("com/example/Type$Inner", all);
+    }
+
+    @Test
+    void excludeLibraries() {
+        assert !PowerAssert.accept("java/lang/String", all);
+        assert !PowerAssert.accept("javax/annotation/Nullable", all);
+        assert !PowerAssert.accept("jdk/internal/misc/Unsafe", all);
+        assert !PowerAssert.accept("sun/misc/Unsafe", all);
+        assert !PowerAssert.accept("com/sun/tools/attach/VirtualMachine", all);
+        assert !PowerAssert.accept("org/junit/jupiter/api/Test", all);
+        assert !PowerAssert.accept("org/opentest4j/AssertionFailedError", all);
+        assert !PowerAssert.accept("org/apiguardian/api/API", all);
+        assert !PowerAssert.accept("net/bytebuddy/jar/asm/ClassReader", all);
+    }
+
+    @Test
+    void excludeAntibug() {
+        assert !PowerAssert.accept("antibug/CleanRoom", all);
+        assert !PowerAssert.accept("antibug/powerassert/Journal", all);
+        assert !PowerAssert.accept("antibug/bytecode/Agent", all);
+    }
+
+    @Test
+    void excludeWinsOverInclude() {
+        assert !PowerAssert.accept("antibug/CleanRoom", new String[] {"antibug/"});
+        assert !PowerAssert.accept("java/lang/String", new String[] {"java/"});
+    }
+
+    @Test
+    void include() {
+        String[] includes = {"com/example/", "org/acme/"};
+
+        assert PowerAssert.accept("com/example/Type", includes);
+        assert PowerAssert.accept("org/acme/Type", includes);
+        assert !PowerAssert.accept("com/other/Type", includes);
+        assert !PowerAssert.accept("com/examples/Type", includes);
+    }
+
+    @Test
+    void premain() throws Exception {
+        String output = launch(null);
+
+        assert output.contains(PowerAssertionError.class.getName());
+        assert output.contains("value == 0");
+    }
+
+    @Test
+    void premainWithIncludes() throws Exception {
+        assert launch("premain.").contains(PowerAssertionError.class.getName());
+
+        String output = launch("other.");
+        assert output.contains(AssertionError.class.getName());
+        assert !output.contains(PowerAssertionError.class.getName());
+    }
+
+    /**
+     * Launch {@link premain.PremainTarget} in the new JVM which loads PowerAssert by
+     * <code>-javaagent</code> option.
+     * 
+     * @param args The agent argument.
+     * @return The console output.
+     */
+    private String launch(String args) throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Premain-Class", PowerAssert.class.getName());
+        manifest.getMainAttributes().putValue("Can-Redefine-Classes", "true");
+        manifest.getMainAttributes().putValue("Can-Retransform-Classes", "true");
+
+        Path jar = room.locateAbsent("agent" + (args == null ? "" : "-" + args) + ".jar");
+        new JarOutputStream(Files.newOutputStream(jar), manifest).close();
+
+        Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java")
+                .toString(), "-javaagent:" + jar + (args == null ? "" : "=" + args), "-ea", "-Dantibug.cache=false", "-cp", System
+                        .getProperty("java.class.path"), premain.PremainTarget.class.getName()).redirectErrorStream(true).start();
+
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assert process.waitFor(60, TimeUnit.SECONDS);
+        return output;
+    }
+}
\ No newline at end of file
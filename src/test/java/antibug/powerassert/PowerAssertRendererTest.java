@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class PowerAssertRendererTest {
+
+    @Test
+    void array() {
+        assert PowerAssertRenderer.format(new int[] {1, 2, 3}).equals("[1, 2, 3]");
+        assert PowerAssertRenderer.format(new String[] {"a", null}).equals("[a, null]");
+    }
+
+    @Test
+    void largeArray() {
+        String text = PowerAssertRenderer.format(new int[10_000_000]);
+
+        assert text.length() < 1000;
+        assert text.endsWith(", … 9,999,900 more]");
+    }
+
+    @Test
+    void largeString() {
+        String text = PowerAssertRenderer.format("a".repeat(1_000_000));
+
+        assert text.length() < 5000;
+        assert text.endsWith("\" … 996,003 more");
+    }
+
+    @Test
+    void collection() {
+        assert PowerAssertRenderer.format(List.of(1, 2)).equals("[1, 2]");
+
+        List<Integer> list = new ArrayList();
+        for (int i = 0; i < 1000; i++) {
+            list.add(i);
+        }
+        assert PowerAssertRenderer.format(list).endsWith("99, … 900 more]");
+    }
+
+    @Test
+    void map() {
+        Map<String, Integer> map = new TreeMap();
+        map.put("a", 1);
+        map.put("b", 2);
+
+        assert PowerAssertRenderer.format(map).equals("{a=1, b=2}");
+    }
+
+    @Test
+    void nested() {
+        assert PowerAssertRenderer.format(new Object[] {new int[] {1, 2}, List.of(3)}).equals("[[1, 2], [3]]");
+        assert PowerAssertRenderer.format(List.of(new int[] {1, 2})).equals("[[1, 2]]");
+        assert PowerAssertRenderer.format(Map.of("a", List.of(1))).equals("{a=[1]}");
+    }
+
+    @Test
+    void nestedLarge() {
+        String text = PowerAssertRenderer.format(List.of(new int[10_000_000]));
+
+        assert text.length() < 1000;
+        assert text.endsWith(", … 9,999,900 more]]");
+    }
+
+    @Test
+    void largeElement() {
+        assert PowerAssertRenderer.format(List.of("a".repeat(1_000_000))).length() < 5000;
+        assert PowerAssertRenderer.format(new Object[] {"a".repeat(1_000_000)}).length() < 5000;
+        assert PowerAssertRenderer.format(Map.of("a", "b".repeat(1_000_000))).length() < 5000;
+    }
+
+    @Test
+    void selfReference() {
+        List list = new ArrayList();
+        list.add(list);
+        assert PowerAssertRenderer.format(list).equals("[(this Collection)]");
+
+        Object[] array = new Object[1];
+        array[0] = array;
+        assert PowerAssertRenderer.format(array).equals("[[...]]");
+    }
+
+    @Test
+    void customCollection() {
+        assert PowerAssertRenderer.format(new Custom(2)).equals("custom");
+
+        // large collection is streamed in the standard format
+        String text = PowerAssertRenderer.format(new Custom(1_000_000));
+        assert text.startsWith("[0, 1, 2");
+        assert text.endsWith("99, … 999,900 more]");
+    }
+
+    /**
+     * Collection with the own text format.
+     */
+    private static class Custom extends AbstractList<Integer> {
+
+        private final int size;
+
+        private Custom(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "custom";
+        }
+    }
+
+    @Test
+    void registerInvalidatesResolved() {
+        assert PowerAssertRenderer.format(new Late()).equals("late");
+
+        PowerAssertRenderer.register(LateRenderer.class, Late.class);
+        assert PowerAssertRenderer.format(new Late()).equals("rendered late");
+    }
+
+    @Test
+    void subclass() {
+        PowerAssertRenderer.register(BaseRenderer.class, Base.class);
+
+        assert PowerAssertRenderer.format(new Base()).equals("rendered base");
+        assert PowerAssertRenderer.format(new Derived()).equals("rendered base");
+    }
+
+    @Test
+    void nearestClassWins() {
+        PowerAssertRenderer.register(ParentRenderer.class, Parent.class);
+        PowerAssertRenderer.register(ChildRenderer.class, Child.class);
+
+        assert PowerAssertRenderer.format(new Parent()).equals("rendered parent");
+        assert PowerAssertRenderer.format(new Child()).equals("rendered child");
+        assert PowerAssertRenderer.format(new GrandChild()).equals("rendered child");
+    }
+
+    @Test
+    void interfaceType() {
+        PowerAssertRenderer.register(ShapeRenderer.class, Shape.class);
+
+        assert PowerAssertRenderer.format(new Circle()).equals("rendered shape");
+        assert PowerAssertRenderer.format(new Square()).equals("rendered shape");
+    }
+
+    private static class Late {
+
+        @Override
+        public String toString() {
+            return "late";
+        }
+    }
+
+    private static class LateRenderer extends PowerAssertRenderer<Late> {
+
+        @Override
+        protected String render(Late value) {
+            return "rendered late";
+        }
+    }
+
+    private static class Base {
+    }
+
+    private static class Derived extends Base {
+    }
+
+    private static class BaseRenderer extends PowerAssertRenderer<Base> {
+
+        @Override
+        protected String render(Base value) {
+            return "rendered base";
+        }
+    }
+
+    private static class Parent {
+    }
+
+    private static class Child extends Parent {
+    }
+
+    private static class GrandChild extends Child {
+    }
+
+    private static class ParentRenderer extends PowerAssertRenderer<Parent> {
+
+        @Override
+        protected String render(Parent value) {
+            return "rendered parent";
+        }
+    }
+
+    private static class ChildRenderer extends PowerAssertRenderer<Child> {
+
+        @Override
+        protected String render(Child value) {
+            return "rendered child";
+        }
+    }
+
+    private interface Shape {
+    }
+
+    private static class Circle implements Shape {
+    }
+
+    private static class Square extends Circle {
+    }
+
+    private static class ShapeRenderer extends PowerAssertRenderer<Shape> {
+
+        @Override
+        protected String render(Shape value) {
+            return "rendered shape";
+        }
+    }
+
+    @Test
+    void elided() {
+        assert PowerAssertRenderer.isElided(new int[1000]);
+        assert PowerAssertRenderer.isElided("a".repeat(10000));
+        assert !PowerAssertRenderer.isElided(new int[] {1});
+        assert !PowerAssertRenderer.isElided("a");
+        assert !PowerAssertRenderer.isElided(null);
+    }
+}
\ No newline at end of file
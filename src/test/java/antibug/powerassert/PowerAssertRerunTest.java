@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.powerassert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import antibug.bytecode.AgentTest;
+
+class PowerAssertRerunTest {
+
+    @Test
+    void translationIsSharedByConcurrentFailures() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Set<CompletableFuture<Void>> translations = ConcurrentHashMap.newKeySet();
+        List<Future> futures = new ArrayList();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    CompletableFuture<Void> translation = PowerAssert.translate(Target.class);
+                    translation.join();
+                    translations.add(translation);
+                    return null;
+                }));
+            }
+            start.countDown();
+
+            for (Future future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assert translations.size() == 1;
+
+        try {
+            new Target().check(1);
+            throw new Error("unreachable");
+        } catch (PowerAssertionError e) {
+            assert e.getMessage().contains("value == 0");
+        }
+    }
+
+    @Test
+    void rerunFailureInOldCode() {
+        int[] count = new int[2];
+
+        PowerAssert.capture(failAt(NeverTranslated.class), () -> count[0]++, e -> count[1]++);
+        assert count[0] == 1;
+        assert count[1] == 0;
+    }
+
+    @Test
+    void rerunFailureAfterTranslationCompleted() {
+        int[] count = new int[2];
+
+        // the other test has translated the class already
+        PowerAssert.translate(Late.class).join();
+
+        // but this test failed in the old code before it
+        PowerAssert.capture(failAt(Late.class), () -> count[0]++, e -> count[1]++);
+        assert count[0] == 1;
+        assert count[1] == 0;
+    }
+
+    @Test
+    void rerunOnlyOnce() {
+        int[] count = new int[2];
+        AssertionError error = failAt(Translated.class);
+
+        // the re-run test fails again
+        PowerAssert.capture(error, () -> {
+            count[0]++;
+            PowerAssert.capture(error, () -> count[0]++, e -> count[1]++);
+        }, e -> count[1]++);
+        assert count[0] == 1;
+        assert count[1] == 1;
+    }
+
+    @Test
+    void noRerunForOtherError() {
+        int[] count = new int[2];
+
+        PowerAssert.capture(new IllegalStateException(), () -> count[0]++, e -> count[1]++);
+        assert count[0] == 0;
+        assert count[1] == 1;
+    }
+
+    @Test
+    void related() {
+        List<Class> related = PowerAssert.related(Target.class);
+
+        assert related.contains(PowerAssertRerunTest.class);
+        assert related.contains(Translated.class);
+        assert !related.contains(Target.class);
+    }
+
+    @Test
+    void relatedWithBrokenNestMember() {
+        Class host = AgentTest.brokenNestHost();
+        assert PowerAssert.related(host).isEmpty();
+
+        CompletableFuture<Void> translation = PowerAssert.translate(host);
+        assert translation.isDone();
+        assert !translation.isCompletedExceptionally();
+    }
+
+    /**
+     * Build the assertion error which is thrown in the specified class.
+     * 
+     * @param clazz A failed class.
+     * @return An error.
+     */
+    private static AssertionError failAt(Class clazz) {
+        AssertionError error = new AssertionError("fail");
+        error.setStackTrace(new StackTraceElement[] {new StackTraceElement(clazz.getName(), "check", null, 1)});
+        return error;
+    }
+
+    /**
+     * The class which is translated in advance (e.g. by premain or build time translation).
+     */
+    private static class Translated {
+    }
+
+    /**
+     * The class whose translation is completed before the failure is captured.
+     */
+    private static class Late {
+    }
+
+    /**
+     * The class which has never failed before.
+     */
+    private static class Target {
+
+        private void check(int value) {
+            assert value == 0;
+        }
+    }
+}
+
+/**
+ * The class which has never been translated, it is out of the nest of test class and has no assert
+ * statement (premain doesn't translate it).
+ */
+class NeverTranslated {
+}
\ No newline at end of file
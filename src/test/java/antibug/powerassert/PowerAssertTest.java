@@ -10,7 +10,9 @@
 package antibug.powerassert;
 
 import java.lang.annotation.RetentionPolicy;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -494,4 +496,154 @@ class PowerAssertTest {
     private void validate(String value, Consumer<String> run) {
         run.accept(value);
     }
+
+    @Test
+    void conditionalAndLeft() {
+        int one = 10;
+        int other = 20;
+
+        test.willCapture("one", one);
+        assert one == 20 && other == 20;
+    }
+
+    @Test
+    void valueAtEvaluation() {
+        int value = 1;
+
+        test.willCapture("value", 1);
+        assert value++ == 2;
+    }
+
+    @Test
+    void templateIsFilledByCurrentValues() {
+        String first = failure(123);
+        String second = failure(456);
+
+        assert first.contains("value + 1 == 0");
+        assert first.contains("123");
+        assert second.contains("value + 1 == 0");
+        assert second.contains("456");
+        assert !second.contains("123");
+    }
+
+    @Test
+    void templateSitesAreBounded() {
+        String last = null;
+
+        for (int i = 0; i < 1100; i++) {
+            PowerAssertContext context = new PowerAssertContext("bounded#" + i, -1);
+            context.constant(i);
+            context.constant(0);
+            context.operator("==");
+            last = context.stack().toString();
+        }
+
+        // the tester captures the failed assertion, so throw error explicitly
+        if (1024 < PowerAssertContext.templateSites() || !last.contains("1099")) {
+            throw new Error("The template sites are not bounded: " + PowerAssertContext.templateSites() + " " + last);
+        }
+    }
+
+    @Test
+    void templateDoesNotHoldValues() throws Exception {
+        WeakReference<Fixture> first = retain(new Fixture());
+        WeakReference<Fixture> second = retain(new Fixture());
+
+        for (int i = 0; i < 50 && (first.get() != null || second.get() != null); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // the tester captures the failed assertion, so throw error explicitly
+        if (first.get() != null || second.get() != null) {
+            throw new Error("The template holds the operand value.");
+        }
+    }
+
+    private WeakReference<Fixture> retain(Fixture fixture) {
+        try {
+            assert fixture == null;
+        } catch (PowerAssertionError e) {
+            assert e.getMessage().contains("fixture == null");
+        }
+        return new WeakReference(fixture);
+    }
+
+    /**
+     * The test fixture which must not be held after the failure.
+     */
+    private static class Fixture {
+    }
+
+    @Test
+    void diffOfComparedValues() {
+        String message = equality("one\ntwo\nthree", "one\n2\nthree");
+
+        assert message.contains("diff by line");
+        assert message.contains("- [1] two");
+        assert message.contains("+ [1] 2");
+    }
+
+    @Test
+    void diffOfLargeValues() {
+        int[] left = new int[1000];
+        int[] right = new int[1000];
+        right[500] = 7;
+
+        try {
+            assert same(left, right);
+        } catch (PowerAssertionError e) {
+            if (!e.getMessage().contains("diff by index") || !e.getMessage().contains("~ [500] 0 → 7")) {
+                throw new Error(e.getMessage());
+            }
+        }
+    }
+
+    private static boolean same(int[] left, int[] right) {
+        return Arrays.equals(left, right);
+    }
+
+    @Test
+    void localVariableOfHashCollidedMethod() {
+        // the method keys "...#Aa(I)..." and "...#BB(I)..." have the same hash code
+        assert "Aa".hashCode() == "BB".hashCode();
+        assert Aa(1).contains("first");
+        assert BB(2).contains("second");
+        assert !BB(2).contains("first");
+    }
+
+    private String Aa(int first) {
+        try {
+            assert first == 0;
+            return "";
+        } catch (PowerAssertionError e) {
+            return e.getMessage();
+        }
+    }
+
+    private String BB(int second) {
+        try {
+            assert second == 0;
+            return "";
+        } catch (PowerAssertionError e) {
+            return e.getMessage();
+        }
+    }
+
+    private String equality(String left, String right) {
+        try {
+            assert left.equals(right);
+            return "";
+        } catch (PowerAssertionError e) {
+            return e.getMessage();
+        }
+    }
+
+    private String failure(int value) {
+        try {
+            assert value + 1 == 0;
+            return "";
+        } catch (PowerAssertionError e) {
+            return e.getMessage();
+        }
+    }
 }
\ No newline at end of file
@@ -54,16 +54,16 @@ public class PowerAssertTester implements BeforeAllCallback, BeforeEachCallback
     void validate(PowerAssertionError e) {
         PowerAssertContext context = e.context;
 
-        if (context.stack.size() != 1) {
-            throw new AssertionError("Stack size is not 1. \n" + context.stack);
+        if (context.stack().size() != 1) {
+            throw new AssertionError("Stack size is not 1. \n" + context.stack());
         }
 
-        String code = context.stack.peek().toString();
+        String code = context.stack().peek().toString();
 
         for (Operand expected : expecteds) {
-            if (!context.operands.contains(expected)) {
+            if (!context.operands().contains(expected)) {
                 throw new AssertionError("Can't capture the below operand.\r\nExpect  : " + expected
-                        .toString() + "\r\nValue : " + expected.value + "\r\nActual : " + context.operands + "\r\n");
+                        .toString() + "\r\nValue : " + expected.value + "\r\nActual : " + context.operands() + "\r\n");
             }
         }
 
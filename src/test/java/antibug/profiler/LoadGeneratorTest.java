@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.profiler;
+
+import static java.util.concurrent.TimeUnit.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import antibug.Chronus;
+
+public class LoadGeneratorTest {
+
+    private final Chronus virtual = Chronus.virtual();
+
+    @Test
+    void constant() {
+        Histogram latency = LoadGenerator.constant(1000).run(virtual, 1, SECONDS, () -> {
+        });
+
+        assert latency.count() == 1000;
+        assert latency.max() == 0;
+        assert virtual.lateness().max() == 0;
+    }
+
+    @Test
+    void ramp() {
+        // the average rate is 1000
+        Histogram latency = LoadGenerator.ramp(0, 2000).run(virtual, 1, SECONDS, () -> {
+        });
+
+        assert Math.abs(latency.count() - 1000) <= 1;
+    }
+
+    @Test
+    void rampDown() {
+        Histogram latency = LoadGenerator.ramp(3000, 1000).run(virtual, 2, SECONDS, () -> {
+        });
+
+        assert Math.abs(latency.count() - 4000) <= 1;
+    }
+
+    @Test
+    void rampToZero() {
+        // the total arrivals are 1.5
+        Histogram latency = LoadGenerator.ramp(3, 0).run(virtual, 1, SECONDS, () -> {
+        });
+
+        assert latency.count() == 2;
+    }
+
+    @Test
+    void rampToZeroWithManyArrivals() {
+        // the total arrivals are 500.5
+        Histogram latency = LoadGenerator.ramp(1001, 0).run(virtual, 1, SECONDS, () -> {
+        });
+
+        assert Math.abs(latency.count() - 501) <= 1;
+    }
+
+    @Test
+    void poisson() {
+        Histogram latency = LoadGenerator.poisson(1000).configSeed(50).run(virtual, 10, SECONDS, () -> {
+        });
+
+        // 4 sigma
+        assert Math.abs(latency.count() - 10000) < 400;
+    }
+
+    @Test
+    void poissonIsReproducible() {
+        long first = LoadGenerator.poisson(100).configSeed(1).run(virtual, 1, SECONDS, () -> {
+        }).count();
+        long second = LoadGenerator.poisson(100).configSeed(1).run(Chronus.virtual(), 1, SECONDS, () -> {
+        }).count();
+
+        assert first == second;
+    }
+
+    @Test
+    void openLoop() {
+        // the single thread serves 500 tasks per second, but 1000 tasks per second arrive
+        Chronus chronus = new Chronus(() -> Executors.newScheduledThreadPool(1));
+
+        Histogram latency = LoadGenerator.constant(1000).run(chronus, 200, MILLISECONDS, () -> {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            }
+        });
+
+        assert latency.count() == 200;
+
+        // the closed loop measurement reports only 2ms
+        assert MILLISECONDS.toNanos(100) < latency.max();
+        chronus.shutdownNow();
+    }
+
+    @Test
+    void awaitLimit() throws Exception {
+        Chronus chronus = Chronus.threadPerTask();
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the tasks never complete in the limit, but the histogram is returned
+        Histogram latency = LoadGenerator.constant(100).configAwaitLimit(50, MILLISECONDS).run(chronus, 50, MILLISECONDS, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new Error(e);
+            }
+        });
+        release.countDown();
+
+        assert latency.count() == 5;
+        assert MILLISECONDS.toNanos(40) <= latency.max();
+    }
+
+    @Test
+    void awaitOwnTasksOnly() {
+        // the other task on the same chronus is not waited
+        virtual.schedule(() -> {
+        }, 1, DAYS);
+
+        Histogram latency = LoadGenerator.constant(1000).run(virtual, 1, SECONDS, () -> {
+        });
+
+        assert latency.count() == 1000;
+        assert virtual.nanoTime() < DAYS.toNanos(1);
+    }
+
+    @Test
+    void invalidRate() {
+        try {
+            LoadGenerator.constant(0);
+            throw new AssertionError("unreachable");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package antibug.profiler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import antibug.CleanRoom;
+import antibug.profiler.Profiler.Order;
+
+public class ProfilerTest {
+
+    @RegisterExtension
+    CleanRoom room = new CleanRoom();
+
+    private final Profiler<String, String, String> profiler = new Profiler();
+
+    @AfterEach
+    void disable() {
+        profiler.execute = false;
+    }
+
+    /**
+     * Helper method to profile the specified phase.
+     * 
+     * @param name
+     * @param count
+     */
+    private void profile(String name, int count) {
+        for (int i = 0; i < count; i++) {
+            profiler.start(name, () -> {
+                long start = System.nanoTime();
+                while (System.nanoTime() == start) {
+                    Thread.onSpinWait();
+                }
+            });
+        }
+    }
+
+    @Test
+    void sortByCount() {
+        profile("one", 1);
+        profile("three", 3);
+        profile("two", 2);
+
+        List<Profiler<String, String, String>.Result> rows = profiler.report().sortBy(Order.Count).rows();
+        assert rows.size() == 3;
+        assert rows.get(0).name.equals("three");
+        assert rows.get(1).name.equals("two");
+        assert rows.get(2).name.equals("one");
+    }
+
+    @Test
+    void top() {
+        for (int i = 0; i < 20; i++) {
+            profile("phase" + i, i + 1);
+        }
+
+        assert profiler.report().rows().size() == 15;
+        assert profiler.report().top(3).rows().size() == 3;
+        assert profiler.report().all().rows().size() == 20;
+    }
+
+    @Test
+    void minPercentage() {
+        profile("phase", 3);
+
+        assert profiler.report().minPercentage(50).rows().size() == 1;
+        assert profiler.report().minPercentage(101).rows().isEmpty();
+    }
+
+    @Test
+    void percentile() {
+        profile("phase", 10);
+
+        Profiler<String, String, String>.Result row = profiler.report().rows().get(0);
+        assert row.count == 10;
+        assert row.times.count() == 10;
+        assert 0 < row.times.percentile(99);
+        assert row.elapsed <= row.total;
+    }
+
+    @Test
+    void sortByP99() {
+        profile("fast", 1);
+        profiler.start("slow", () -> {
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < 1_000_000) {
+                Thread.onSpinWait();
+            }
+        });
+
+        List<Profiler<String, String, String>.Result> rows = profiler.report().sortBy(Order.P99).rows();
+        assert rows.get(0).name.equals("slow");
+        assert rows.get(0).p99 == rows.get(0).times.percentile(99);
+        assert rows.get(1).p99 < rows.get(0).p99;
+    }
+
+    @Test
+    void jsonPercentile() {
+        profile("phase", 10);
+
+        Profiler<String, String, String>.Result row = profiler.report().rows().get(0);
+        assert profiler.report().json().contains("\"p99\":" + row.p99 + ",");
+    }
+
+    @Test
+    void json() {
+        profile("quote\"d", 1);
+
+        String json = profiler.report().json();
+        assert json.startsWith("{\"total\":");
+        assert json.contains("\"name\":\"quote\\\"d\"");
+        assert json.contains("\"count\":1");
+    }
+
+    @Test
+    void file() throws Exception {
+        profile("phase", 1);
+
+        Path file = room.locateAbsent("report/profile.txt");
+        profiler.report().text(file);
+
+        assert Files.readString(file).contains("phase");
+    }
+}
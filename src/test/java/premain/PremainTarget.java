@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2021 Nameless Production Committee
+ *
+ * Licensed under the MIT License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          https://opensource.org/licenses/MIT
+ */
+package premain;
+
+/**
+ * The entry point which is launched with PowerAssert agent. It is out of antibug package because
+ * the agent never translates antibug itself.
+ */
+public class PremainTarget {
+
+    public static void main(String[] args) {
+        int value = 1;
+
+        try {
+            assert value == 0;
+            System.out.println("No error");
+        } catch (Throwable e) {
+            System.out.println(e);
+        }
+    }
+}
\ No newline at end of file